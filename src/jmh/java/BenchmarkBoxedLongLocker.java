@@ -0,0 +1,11 @@
+import org.fedyiv.jmh.LongLocker;
+
+public class BenchmarkBoxedLongLocker implements LongLocker {
+
+    private final EntityLocker<Long> entityLocker = new EntityLocker<>();
+
+    @Override
+    public void lockAndExecute(long entityId, Runnable protectedCode) throws InterruptedException {
+        entityLocker.lockAndExecute(entityId, protectedCode);
+    }
+}
@@ -0,0 +1,29 @@
+import org.fedyiv.jmh.BulkLocker;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+public class BenchmarkBulkLocker implements BulkLocker {
+
+    private final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+    private final BulkExecutor<Integer> bulkExecutor = new BulkExecutor<>(entityLocker);
+
+    @Override
+    public void lockEach(int[] entityIds, IntConsumer task) throws Exception {
+        ForkJoinTask<?> all = ForkJoinPool.commonPool().submit(() -> IntStream.range(0, entityIds.length).parallel().forEach(record -> {
+            try {
+                entityLocker.lockAndExecute(entityIds[record], () -> task.accept(record));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        all.get();
+    }
+
+    @Override
+    public void executeAll(int[] entityIds, IntConsumer task) throws Exception {
+        bulkExecutor.executeAll(IntStream.range(0, entityIds.length).boxed(), record -> entityIds[record], task::accept);
+    }
+}
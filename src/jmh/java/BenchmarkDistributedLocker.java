@@ -0,0 +1,21 @@
+import org.fedyiv.jmh.DistributedLocker;
+
+public class BenchmarkDistributedLocker implements DistributedLocker {
+
+    private DistributedEntityLocker<Integer> locker;
+
+    @Override
+    public void start(long roundTripNanos, boolean caching) {
+        locker = new DistributedEntityLocker<>(new InMemoryLeaseCoordinator<>(roundTripNanos), "benchmark", 10_000, caching ? 60_000 : 0);
+    }
+
+    @Override
+    public void lockAndExecute(int entityId, Runnable protectedCode) throws InterruptedException {
+        locker.lockAndExecute(entityId, fencingToken -> protectedCode.run());
+    }
+
+    @Override
+    public void close() {
+        locker.close();
+    }
+}
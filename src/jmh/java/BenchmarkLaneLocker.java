@@ -0,0 +1,11 @@
+import org.fedyiv.jmh.LaneLocker;
+
+public class BenchmarkLaneLocker implements LaneLocker {
+
+    private final LaneEntityLocker<Integer> entityLocker = new LaneEntityLocker<>();
+
+    @Override
+    public void lockAndExecute(int entityId, Runnable protectedCode) throws InterruptedException {
+        entityLocker.lockAndExecute(entityId, protectedCode);
+    }
+}
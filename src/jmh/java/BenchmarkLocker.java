@@ -0,0 +1,47 @@
+import org.fedyiv.jmh.LaneLocker;
+import org.fedyiv.jmh.Locker;
+
+import java.util.function.Function;
+
+public class BenchmarkLocker implements Locker, LaneLocker {
+
+    private final EntityLocker<Integer> entityLocker;
+
+    public BenchmarkLocker() {
+        this(new EntityLocker<>());
+    }
+
+    BenchmarkLocker(EntityLocker<Integer> entityLocker) {
+        this.entityLocker = entityLocker;
+    }
+
+    @Override
+    public void lockAndExecute(int entityId, Runnable protectedCode) throws InterruptedException {
+        entityLocker.lockAndExecute(entityId, protectedCode);
+    }
+
+    @Override
+    public boolean tryLockAndExecute(int entityId, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException {
+        return entityLocker.tryLockAndExecute(entityId, protectedCode, timeoutInMilliseconds);
+    }
+
+    @Override
+    public boolean tryLockAndExecute(int entityId, int priority, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException {
+        return entityLocker.tryLockAndExecute(entityId, priority, protectedCode, timeoutInMilliseconds);
+    }
+
+    @Override
+    public boolean tryLockAndExecuteUntil(int entityId, Runnable protectedCode, long deadlineNanos) throws InterruptedException {
+        return entityLocker.tryLockAndExecuteUntil(entityId, protectedCode, deadlineNanos);
+    }
+
+    @Override
+    public <A, R> R lockAndApply(int entityId, A argument, Function<? super A, ? extends R> protectedCode) throws InterruptedException {
+        return entityLocker.lockAndApply(entityId, argument, protectedCode);
+    }
+
+    @Override
+    public AutoCloseable acquire(int entityId, long timeoutInMilliseconds) throws InterruptedException {
+        return entityLocker.acquire(entityId, timeoutInMilliseconds);
+    }
+}
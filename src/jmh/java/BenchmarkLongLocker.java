@@ -0,0 +1,11 @@
+import org.fedyiv.jmh.LongLocker;
+
+public class BenchmarkLongLocker implements LongLocker {
+
+    private final LongEntityLocker entityLocker = new LongEntityLocker();
+
+    @Override
+    public void lockAndExecute(long entityId, Runnable protectedCode) throws InterruptedException {
+        entityLocker.lockAndExecute(entityId, protectedCode);
+    }
+}
@@ -0,0 +1,6 @@
+public class BenchmarkMeteredLocker extends BenchmarkLocker {
+
+    public BenchmarkMeteredLocker() {
+        super(new EntityLocker<>(new LockMetrics<>()));
+    }
+}
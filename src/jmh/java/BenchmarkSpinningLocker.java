@@ -0,0 +1,6 @@
+public class BenchmarkSpinningLocker extends BenchmarkLocker {
+
+    public BenchmarkSpinningLocker() {
+        super(EntityLocker.<Integer>builder().spinning(true).build());
+    }
+}
@@ -0,0 +1,9 @@
+public class BenchmarkSweepingLocker extends BenchmarkLocker {
+
+    public BenchmarkSweepingLocker() {
+        super(EntityLocker.<Integer>builder()
+                .deadlockStrategy(EntityLocker.DeadlockStrategy.DETECT)
+                .deadlockSweeping(100, EntityLocker.DeadlockVictim.YOUNGEST)
+                .build());
+    }
+}
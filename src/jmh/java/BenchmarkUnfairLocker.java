@@ -0,0 +1,6 @@
+public class BenchmarkUnfairLocker extends BenchmarkLocker {
+
+    public BenchmarkUnfairLocker() {
+        super(EntityLocker.<Integer>builder().fair(false).build());
+    }
+}
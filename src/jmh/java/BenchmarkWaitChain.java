@@ -0,0 +1,63 @@
+import org.fedyiv.jmh.WaitChain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class BenchmarkWaitChain implements WaitChain {
+
+    private final DeadlockDetector deadlockDetector = new DeadlockDetector();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Thread> threads = new ArrayList<>();
+    private final LockOwner benchmarkOwner = new LockOwner();
+    private EntityLock firstLock;
+
+    @Override
+    public void start(int length) throws InterruptedException {
+        EntityLock[] locks = new EntityLock[length + 1];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new EntityLock(true);
+        }
+        firstLock = locks[0];
+
+        CountDownLatch registered = new CountDownLatch(length);
+        for (int i = 0; i < length; i++) {
+            EntityLock heldLock = locks[i];
+            EntityLock awaitedLock = locks[i + 1];
+            LockOwner owner = new LockOwner();
+            Thread thread = new Thread(() -> {
+                heldLock.tryLockImmediately(owner, false);
+                // Registered only, the thread never actually waits, so the last lock of the chain stays free
+                deadlockDetector.beforeTryingToAcquireLock(owner, awaitedLock, false);
+                registered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    deadlockDetector.afterUnsuccessfulAcquire(owner);
+                    heldLock.unlock(owner, false);
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        registered.await();
+    }
+
+    @Override
+    public boolean isDeadlockSafe() {
+        boolean safe = deadlockDetector.isDeadlockSafe(benchmarkOwner, firstLock, false);
+        deadlockDetector.afterUnsuccessfulAcquire(benchmarkOwner);
+        return safe;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
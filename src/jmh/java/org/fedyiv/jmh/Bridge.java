@@ -0,0 +1,15 @@
+package org.fedyiv.jmh;
+
+final class Bridge {
+
+    private Bridge() {
+    }
+
+    static Object newInstance(String className) {
+        try {
+            return Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create " + className, e);
+        }
+    }
+}
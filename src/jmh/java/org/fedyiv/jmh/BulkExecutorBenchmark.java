@@ -0,0 +1,57 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * A bulk of records on a number of entities, run in parallel either with one lock acquisition per record or grouped
+ * by entity through a {@code BulkExecutor}. Few entities make large groups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkExecutorBenchmark {
+
+    private static final int NUMBER_OF_RECORDS = 100_000;
+
+    @Param({"16", "100000"})
+    int numberOfEntities;
+
+    private BulkLocker locker;
+    private int[] entityIds;
+    private final IntConsumer task = record -> Blackhole.consumeCPU(10);
+
+    @Setup
+    public void setUp() {
+        locker = BulkLocker.create();
+        SplittableRandom random = new SplittableRandom(42);
+        entityIds = random.ints(NUMBER_OF_RECORDS, 0, numberOfEntities).toArray();
+    }
+
+    @Benchmark
+    public void lockEach() throws Exception {
+        locker.lockEach(entityIds, task);
+    }
+
+    @Benchmark
+    public void bulk() throws Exception {
+        locker.executeAll(entityIds, task);
+    }
+}
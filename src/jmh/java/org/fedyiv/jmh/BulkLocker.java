@@ -0,0 +1,24 @@
+package org.fedyiv.jmh;
+
+import java.util.function.IntConsumer;
+
+/**
+ * An {@code EntityLocker<Integer>} running records either one lock per record or through a {@code BulkExecutor}.
+ * Implemented by {@code BenchmarkBulkLocker} in the default package, see {@link Locker}.
+ */
+public interface BulkLocker {
+
+    /**
+     * Runs each record under the lock of its entity on a pool thread of its own, one acquisition per record.
+     */
+    void lockEach(int[] entityIds, IntConsumer task) throws Exception;
+
+    /**
+     * Runs the records through a {@code BulkExecutor}.
+     */
+    void executeAll(int[] entityIds, IntConsumer task) throws Exception;
+
+    static BulkLocker create() {
+        return (BulkLocker) Bridge.newInstance("BenchmarkBulkLocker");
+    }
+}
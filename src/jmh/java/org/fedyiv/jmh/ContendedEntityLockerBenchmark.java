@@ -0,0 +1,74 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several threads sharing one locker, either each on an entity of its own or all on one hot entity. Besides the
+ * throughput the latency distribution is sampled, which shows the cost of waiting and of handing the lock over.
+ * Both fair and unfair entity locks are measured. The number of threads can be changed with JMH's {@code -t} option.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContendedEntityLockerBenchmark {
+
+    private static final int HOT_ENTITY_ID = -1;
+
+    @Param({"true", "false"})
+    boolean fair;
+
+    private Locker locker;
+    private int hotCounter;
+
+    @Setup
+    public void setUp() {
+        locker = fair ? Locker.create() : Locker.createUnfair();
+    }
+
+    @Benchmark
+    public int distinctEntities(OwnEntity ownEntity) throws InterruptedException {
+        locker.lockAndExecute(ownEntity.entityId, () -> ownEntity.counter++);
+        return ownEntity.counter;
+    }
+
+    @Benchmark
+    public int hotEntity() throws InterruptedException {
+        locker.lockAndExecute(HOT_ENTITY_ID, () -> hotCounter++);
+        return hotCounter;
+    }
+
+    @Benchmark
+    public boolean hotEntityWithTimeout() throws InterruptedException {
+        return locker.tryLockAndExecute(HOT_ENTITY_ID, () -> hotCounter++, 1);
+    }
+
+    @State(Scope.Thread)
+    public static class OwnEntity {
+
+        int entityId;
+        int counter;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            entityId = threadParams.getThreadIndex();
+        }
+    }
+}
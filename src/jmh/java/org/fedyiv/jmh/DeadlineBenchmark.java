@@ -0,0 +1,68 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests with a latency budget under overload: half of them lock an outer entity and, nested in it, an inner one
+ * that the other half locks directly. Each lock either gets the full budget as its timeout, or the outer lock sets a
+ * deadline the nested one inherits. The sampled latencies show how far the tail exceeds the budget.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class DeadlineBenchmark {
+
+    private static final int OUTER_ENTITY_ID = 1;
+    private static final int INNER_ENTITY_ID = 2;
+    private static final long BUDGET_IN_MILLISECONDS = 1;
+
+    @Param({"false", "true"})
+    boolean scoped;
+
+    private Locker locker;
+    private final Runnable criticalSection = () -> Blackhole.consumeCPU(2_000);
+    private Runnable outerSection;
+
+    @Setup
+    public void setUp() {
+        locker = Locker.create();
+        outerSection = () -> {
+            Blackhole.consumeCPU(2_000);
+            try {
+                locker.tryLockAndExecute(INNER_ENTITY_ID, criticalSection, BUDGET_IN_MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    @Benchmark
+    public boolean request() throws InterruptedException {
+        if (ThreadLocalRandom.current().nextBoolean()) {
+            return locker.tryLockAndExecute(INNER_ENTITY_ID, criticalSection, BUDGET_IN_MILLISECONDS);
+        }
+        if (scoped) {
+            return locker.tryLockAndExecuteUntil(OUTER_ENTITY_ID, outerSection, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BUDGET_IN_MILLISECONDS));
+        }
+        return locker.tryLockAndExecute(OUTER_ENTITY_ID, outerSection, BUDGET_IN_MILLISECONDS);
+    }
+}
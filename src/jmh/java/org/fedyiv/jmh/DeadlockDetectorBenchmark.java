@@ -0,0 +1,50 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadlock check of a thread about to wait at the head of a chain of waiting threads, which is walked to its end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeadlockDetectorBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    int chainLength;
+
+    private WaitChain waitChain;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        waitChain = WaitChain.create();
+        waitChain.start(chainLength);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        waitChain.close();
+    }
+
+    @Benchmark
+    public boolean chainWalk() {
+        return waitChain.isDeadlockSafe();
+    }
+}
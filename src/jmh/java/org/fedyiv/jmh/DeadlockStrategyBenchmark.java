@@ -0,0 +1,72 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadlock checking before every wait against sweeping for deadlocks in the background. Every thread holds an entity
+ * of its own while it locks one of {@code hotEntities} shared entities, so its waits are the unordered ones which
+ * prevention has to check; fewer hot entities mean more contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class DeadlockStrategyBenchmark {
+
+    @Param({"prevention", "sweeping"})
+    String strategy;
+
+    @Param({"1", "4", "64"})
+    int hotEntities;
+
+    private Locker locker;
+
+    @Setup
+    public void setUp() {
+        locker = strategy.equals("sweeping") ? Locker.createWithDeadlockSweeping() : Locker.create();
+    }
+
+    @Benchmark
+    public int nestedInOwnEntity(OwnEntity ownEntity) throws InterruptedException {
+        locker.lockAndExecute(ownEntity.entityId, ownEntity.nestedCode);
+        return ownEntity.counter;
+    }
+
+    @State(Scope.Thread)
+    public static class OwnEntity {
+
+        int entityId;
+        int counter;
+        Runnable nestedCode;
+
+        @Setup
+        public void setUp(ThreadParams threadParams, DeadlockStrategyBenchmark benchmark) {
+            entityId = -1 - threadParams.getThreadIndex();
+            nestedCode = () -> {
+                try {
+                    benchmark.locker.lockAndExecute(ThreadLocalRandom.current().nextInt(benchmark.hotEntities), () -> counter++);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+        }
+    }
+}
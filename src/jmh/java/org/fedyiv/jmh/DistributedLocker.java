@@ -0,0 +1,23 @@
+package org.fedyiv.jmh;
+
+/**
+ * A {@code DistributedEntityLocker<Integer>} node backed by an in-memory coordinator with a simulated round trip.
+ * Implemented by {@code BenchmarkDistributedLocker} in the default package, see {@link Locker}.
+ */
+public interface DistributedLocker extends AutoCloseable {
+
+    /**
+     * @param roundTripNanos time every message to the coordinator takes
+     * @param caching        whether leases stay cached after use, otherwise every lock asks the coordinator
+     */
+    void start(long roundTripNanos, boolean caching);
+
+    void lockAndExecute(int entityId, Runnable protectedCode) throws InterruptedException;
+
+    @Override
+    void close();
+
+    static DistributedLocker create() {
+        return (DistributedLocker) Bridge.newInstance("BenchmarkDistributedLocker");
+    }
+}
@@ -0,0 +1,58 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of locking an entity on a node of a distributed locker, with its lease cached on the node and with a
+ * coordinator round trip per lock. A round trip of 0 measures the bookkeeping of the lease alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistributedLockerBenchmark {
+
+    private static final int ENTITY_ID = 1;
+
+    @Param({"false", "true"})
+    boolean caching;
+
+    @Param({"0", "100000"})
+    long roundTripNanos;
+
+    private DistributedLocker locker;
+    private final Runnable criticalSection = () -> {
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker = DistributedLocker.create();
+        locker.start(roundTripNanos, caching);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        locker.close();
+    }
+
+    @Benchmark
+    public void lock() throws InterruptedException {
+        locker.lockAndExecute(ENTITY_ID, criticalSection);
+    }
+}
@@ -0,0 +1,99 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded costs of the locker: the uncontended fast path, reentrant nesting and the timeout variant.
+ * {@code uncontendedApply} passes its state as the argument of a non-capturing function, so unlike
+ * {@code uncontended} it allocates no lambda per call; {@code uncontendedHandle} needs no function at all.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityLockerBenchmark {
+
+    private Locker locker;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        locker = Locker.create();
+    }
+
+    @Benchmark
+    public int uncontended() throws InterruptedException {
+        locker.lockAndExecute(1, () -> counter++);
+        return counter;
+    }
+
+    @Benchmark
+    public int uncontendedApply() throws InterruptedException {
+        return locker.lockAndApply(1, this, EntityLockerBenchmark::increment);
+    }
+
+    @Benchmark
+    public int uncontendedHandle() throws Exception {
+        try (AutoCloseable handle = locker.acquire(1, 0)) {
+            return ++counter;
+        }
+    }
+
+    @Benchmark
+    public int reentrant(Nesting nesting) throws InterruptedException {
+        locker.lockAndExecute(1, nesting.nestedCode);
+        return counter;
+    }
+
+    @Benchmark
+    public boolean uncontendedWithTimeout() throws InterruptedException {
+        return locker.tryLockAndExecute(1, () -> counter++, 100);
+    }
+
+    private static int increment(EntityLockerBenchmark benchmark) {
+        return ++benchmark.counter;
+    }
+
+    /**
+     * Protected code locking the same entity again {@code depth - 1} times. Kept apart, so that only
+     * the reentrant benchmark runs once per depth.
+     */
+    @State(Scope.Thread)
+    public static class Nesting {
+
+        @Param({"2", "4", "16"})
+        int depth;
+
+        Runnable nestedCode;
+
+        @Setup
+        public void setUp(EntityLockerBenchmark benchmark) {
+            Runnable code = () -> benchmark.counter++;
+            for (int i = 1; i < depth; i++) {
+                Runnable innerCode = code;
+                code = () -> {
+                    try {
+                        benchmark.locker.lockAndExecute(1, innerCode);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                };
+            }
+            nestedCode = code;
+        }
+    }
+}
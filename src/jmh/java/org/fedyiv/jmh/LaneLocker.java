@@ -0,0 +1,22 @@
+package org.fedyiv.jmh;
+
+/**
+ * What an {@code EntityLocker<Integer>} and a {@code LaneEntityLocker<Integer>} have in common: running protected code
+ * exclusively per entity. Implemented by {@code BenchmarkLocker} and {@code BenchmarkLaneLocker} in the default
+ * package, see {@link Locker}.
+ */
+public interface LaneLocker {
+
+    void lockAndExecute(int entityId, Runnable protectedCode) throws InterruptedException;
+
+    static LaneLocker create() {
+        return (LaneLocker) Bridge.newInstance("BenchmarkLocker");
+    }
+
+    /**
+     * Creates a {@code LaneEntityLocker}, which runs protected code on per-entity serial lanes instead of locking.
+     */
+    static LaneLocker createLanes() {
+        return (LaneLocker) Bridge.newInstance("BenchmarkLaneLocker");
+    }
+}
@@ -0,0 +1,68 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@code LockMetrics}: the same workloads as {@link ContendedEntityLockerBenchmark}, on a locker without
+ * a listener and on one recording metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LockMetricsBenchmark {
+
+    private static final int HOT_ENTITY_ID = -1;
+
+    @Param({"false", "true"})
+    boolean metrics;
+
+    private Locker locker;
+    private int hotCounter;
+
+    @Setup
+    public void setUp() {
+        locker = metrics ? Locker.createWithMetrics() : Locker.create();
+    }
+
+    @Benchmark
+    public int distinctEntities(OwnEntity ownEntity) throws InterruptedException {
+        locker.lockAndExecute(ownEntity.entityId, () -> ownEntity.counter++);
+        return ownEntity.counter;
+    }
+
+    @Benchmark
+    public int hotEntity() throws InterruptedException {
+        locker.lockAndExecute(HOT_ENTITY_ID, () -> hotCounter++);
+        return hotCounter;
+    }
+
+    @State(Scope.Thread)
+    public static class OwnEntity {
+
+        int entityId;
+        int counter;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            entityId = threadParams.getThreadIndex();
+        }
+    }
+}
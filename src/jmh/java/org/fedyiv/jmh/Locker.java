@@ -0,0 +1,64 @@
+package org.fedyiv.jmh;
+
+import java.util.function.Function;
+
+/**
+ * View of an {@code EntityLocker<Integer>} for the benchmarks. JMH refuses benchmarks in the default package, where
+ * the locker lives, and a named package cannot refer to it, so the benchmarks go through this interface, implemented
+ * by {@code BenchmarkLocker} in the default package.
+ */
+public interface Locker {
+
+    void lockAndExecute(int entityId, Runnable protectedCode) throws InterruptedException;
+
+    boolean tryLockAndExecute(int entityId, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException;
+
+    /**
+     * @param priority how far a contended request moves ahead of those queued before it, 0 keeps arrival order
+     */
+    boolean tryLockAndExecute(int entityId, int priority, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException;
+
+    <A, R> R lockAndApply(int entityId, A argument, Function<? super A, ? extends R> protectedCode) throws InterruptedException;
+
+    /**
+     * @param deadlineNanos deadline as {@link System#nanoTime()}, which also bounds the locks nested in the code
+     */
+    boolean tryLockAndExecuteUntil(int entityId, Runnable protectedCode, long deadlineNanos) throws InterruptedException;
+
+    /**
+     * Returns the {@code LockHandle}, which cannot be named here, as an {@link AutoCloseable}.
+     */
+    AutoCloseable acquire(int entityId, long timeoutInMilliseconds) throws InterruptedException;
+
+    static Locker create() {
+        return (Locker) Bridge.newInstance("BenchmarkLocker");
+    }
+
+    /**
+     * Creates a locker whose entity locks may be taken past queued threads.
+     */
+    static Locker createUnfair() {
+        return (Locker) Bridge.newInstance("BenchmarkUnfairLocker");
+    }
+
+    /**
+     * Creates a locker whose waiting threads spin before they park.
+     */
+    static Locker createSpinning() {
+        return (Locker) Bridge.newInstance("BenchmarkSpinningLocker");
+    }
+
+    /**
+     * Creates a locker recording {@code LockMetrics} with their default sampling.
+     */
+    static Locker createWithMetrics() {
+        return (Locker) Bridge.newInstance("BenchmarkMeteredLocker");
+    }
+
+    /**
+     * Creates a locker leaving deadlocks to a background sweep instead of checking every wait.
+     */
+    static Locker createWithDeadlockSweeping() {
+        return (Locker) Bridge.newInstance("BenchmarkSweepingLocker");
+    }
+}
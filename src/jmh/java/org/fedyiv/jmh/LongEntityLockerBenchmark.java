@@ -0,0 +1,59 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uncontended locking of {@code long} IDs by {@code LongEntityLocker} and by {@code EntityLocker<Long>}. Run with
+ * {@code -prof gc}, which the jmh task does, the primitive locker should show about 0 B/op. The IDs are beyond
+ * the range of cached {@code Long}s and the protected code is created once, so the benchmark itself allocates nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LongEntityLockerBenchmark {
+
+    private static final long FIRST_ENTITY_ID = 1_000_000_000_000L;
+    private static final int NUMBER_OF_ENTITIES = 1024;
+
+    @Param({"false", "true"})
+    boolean boxed;
+
+    private LongLocker locker;
+    private Runnable protectedCode;
+    private long counter;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        locker = LongLocker.create(boxed);
+        protectedCode = () -> counter++;
+    }
+
+    @Benchmark
+    public long sameEntity() throws InterruptedException {
+        locker.lockAndExecute(FIRST_ENTITY_ID, protectedCode);
+        return counter;
+    }
+
+    @Benchmark
+    public long changingEntities() throws InterruptedException {
+        next = (next + 1) & (NUMBER_OF_ENTITIES - 1);
+        locker.lockAndExecute(FIRST_ENTITY_ID + next, protectedCode);
+        return counter;
+    }
+}
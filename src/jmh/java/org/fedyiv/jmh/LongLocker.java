@@ -0,0 +1,15 @@
+package org.fedyiv.jmh;
+
+/**
+ * View of a locker keyed by {@code long} IDs for the benchmarks, see {@link Locker}. Implemented by
+ * {@code BenchmarkLongLocker} on top of a {@code LongEntityLocker} and by {@code BenchmarkBoxedLongLocker} on top of
+ * an {@code EntityLocker<Long>}, to compare the two.
+ */
+public interface LongLocker {
+
+    void lockAndExecute(long entityId, Runnable protectedCode) throws InterruptedException;
+
+    static LongLocker create(boolean boxed) {
+        return (LongLocker) Bridge.newInstance(boxed ? "BenchmarkBoxedLongLocker" : "BenchmarkLongLocker");
+    }
+}
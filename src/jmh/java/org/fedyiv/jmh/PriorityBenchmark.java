@@ -0,0 +1,60 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency-critical requests sharing a hot entity with batch work, which keeps a queue of waiters behind its lock at
+ * all times. The interactive requests queue either like the batch ones or with a higher priority; the sampled
+ * latencies of both show what the interactive tail gains and what the batch work pays for it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriorityBenchmark {
+
+    private static final int ENTITY_ID = 1;
+    private static final int INTERACTIVE_PRIORITY = 10;
+
+    @Param({"false", "true"})
+    boolean prioritized;
+
+    private Locker locker;
+    private final Runnable criticalSection = () -> Blackhole.consumeCPU(2_000);
+
+    @Setup
+    public void setUp() {
+        locker = Locker.create();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public boolean batch() throws InterruptedException {
+        return locker.tryLockAndExecute(ENTITY_ID, 0, criticalSection, 0);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public boolean interactive() throws InterruptedException {
+        return locker.tryLockAndExecute(ENTITY_ID, prioritized ? INTERACTIVE_PRIORITY : 0, criticalSection, 0);
+    }
+}
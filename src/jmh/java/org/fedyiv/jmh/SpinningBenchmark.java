@@ -0,0 +1,53 @@
+package org.fedyiv.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads taking turns on one hot entity with parking waiters and with spinning ones. The critical section burns
+ * {@code work} JMH tokens: a short one is over before a parked waiter would wake up, a long one outlasts any spin.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SpinningBenchmark {
+
+    private static final int HOT_ENTITY_ID = -1;
+
+    @Param({"false", "true"})
+    boolean spinning;
+
+    @Param({"10", "10000"})
+    long work;
+
+    private Locker locker;
+    private Runnable criticalSection;
+
+    @Setup
+    public void setUp() {
+        locker = spinning ? Locker.createSpinning() : Locker.create();
+        criticalSection = () -> Blackhole.consumeCPU(work);
+    }
+
+    @Benchmark
+    public void hotEntity() throws InterruptedException {
+        locker.lockAndExecute(HOT_ENTITY_ID, criticalSection);
+    }
+}
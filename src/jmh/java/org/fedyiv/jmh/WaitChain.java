@@ -0,0 +1,23 @@
+package org.fedyiv.jmh;
+
+/**
+ * A chain of threads, each holding one entity lock and registered as waiting for the lock of the next one,
+ * which makes the deadlock detector walk the whole chain for a thread waiting for the first lock.
+ * Implemented by {@code BenchmarkWaitChain} in the default package, see {@link Locker}.
+ */
+public interface WaitChain extends AutoCloseable {
+
+    void start(int length) throws InterruptedException;
+
+    /**
+     * Registers the current thread as waiting for the first lock of the chain, checks it and withdraws the wait.
+     */
+    boolean isDeadlockSafe();
+
+    @Override
+    void close() throws InterruptedException;
+
+    static WaitChain create() {
+        return (WaitChain) Bridge.newInstance("BenchmarkWaitChain");
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Runs large numbers of small tasks, each under the lock of its entity in an {@link EntityLocker}, without taking the
+ * lock once per task. Tasks submitted for the same entity while earlier ones are pending join their group, and a group
+ * runs under one acquisition, up to {@code maxBatchSize} tasks at a time. Groups of different entities run in
+ * parallel on an executor, tasks of one entity run one by one in submission order. An asynchronous acquisition costs
+ * more than a plain one, so this pays off for bulks whose entities repeat, not for bulks of distinct entities.
+ * <p>
+ * Entities are locked as by {@link EntityLocker#lockAsync}, so a group waiting for a lock held elsewhere occupies no
+ * thread of the executor. Like there, the lock is owned by the group and not by the thread running it, so a task cannot
+ * lock its own entity again through the locker: it fails with {@link IllegalStateException} instead of waiting for
+ * itself. Other entities it may lock as usual; the deadlock checks count the entity of the group as held by the task.
+ * <p>
+ * At most {@code maxInFlight} tasks are submitted and not yet finished at any time; {@link #submit} blocks until
+ * earlier tasks make room, which bounds the memory a fast producer can fill.
+ */
+public class BulkExecutor<T> {
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    final Map<T, Group> groups = new ConcurrentHashMap<>();
+    private final EntityLocker<T> entityLocker;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final int maxBatchSize;
+    private final Semaphore inFlight;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public BulkExecutor(EntityLocker<T> entityLocker) {
+        this(entityLocker, ForkJoinPool.commonPool(), DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param maxInFlight  how many submitted tasks may wait or run at once
+     * @param maxBatchSize how many tasks of a group run under one acquisition, so that a busy entity lets others take
+     *                     its lock now and then and does not keep one thread of the executor for itself
+     */
+    public BulkExecutor(EntityLocker<T> entityLocker, Executor executor, int maxInFlight, int maxBatchSize) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Number of tasks in flight must be positive: " + maxInFlight);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatchSize);
+        }
+        this.entityLocker = entityLocker;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.maxBatchSize = maxBatchSize;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Submits every record of the stream, as task for the entity the function maps it to, and waits until all of them
+     * are done.
+     *
+     * @throws ExecutionException if a task failed; its exception is the cause, later failures are suppressed by it
+     */
+    public <E> void executeAll(Stream<? extends E> records, Function<? super E, ? extends T> entityIdOf, Consumer<? super E> task) throws InterruptedException, ExecutionException {
+        Iterator<? extends E> iterator = records.iterator();
+        while (iterator.hasNext()) {
+            E record = iterator.next();
+            submit(entityIdOf.apply(record), () -> task.accept(record));
+        }
+        awaitCompletion();
+    }
+
+    /**
+     * Queues the task for the entity, waiting for room if {@code maxInFlight} tasks are in flight already.
+     */
+    public void submit(T entityId, Runnable task) throws InterruptedException {
+        inFlight.acquire();
+        boolean[] created = new boolean[1];
+        groups.compute(entityId, (id, group) -> {
+            if (group == null) {
+                group = new Group();
+                created[0] = true;
+            }
+            group.tasks.add(task);
+            return group;
+        });
+        if (created[0]) {
+            schedule(entityId);
+        }
+    }
+
+    /**
+     * Waits until all tasks submitted before are done.
+     *
+     * @throws ExecutionException if a task failed since the last call; its exception is the cause, later failures are
+     *                            suppressed by it
+     */
+    public void awaitCompletion() throws InterruptedException, ExecutionException {
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        Throwable failed = failure.getAndSet(null);
+        if (failed != null) {
+            throw new ExecutionException(failed);
+        }
+    }
+
+    /**
+     * Locks the entity of a group and runs a batch of it on the executor; the group stays in the map, and new tasks
+     * join it instead of scheduling another run, until a run finds it empty and removes it.
+     */
+    private void schedule(T entityId) {
+        // Handed to the executor directly: CompletableFuture would start a thread per run in place of a common pool of one
+        entityLocker.lockAsync(entityId).whenComplete((handle, lockFailure) -> {
+            if (lockFailure != null) {
+                abandon(entityId, lockFailure);
+            } else {
+                executor.execute(() -> run(entityId, handle));
+            }
+        });
+    }
+
+    private void run(T entityId, LockHandle handle) {
+        int ran = 0;
+        try {
+            ran = runBatch(entityId, handle);
+        } finally {
+            handle.close();
+        }
+        boolean pending = groups.compute(entityId, (id, group) -> group.tasks.isEmpty() ? null : group) != null;
+        // Room is made only now, so that a completed bulk leaves no lock or group behind
+        inFlight.release(ran);
+        if (pending) {
+            schedule(entityId);
+        }
+    }
+
+    /**
+     * @return number of tasks run
+     */
+    private int runBatch(T entityId, LockHandle handle) {
+        List<Runnable> batch = new ArrayList<>();
+        groups.computeIfPresent(entityId, (id, group) -> {
+            for (int i = 0; i < maxBatchSize && !group.tasks.isEmpty(); i++) {
+                batch.add(group.tasks.poll());
+            }
+            return group;
+        });
+        for (Runnable task : batch) {
+            try {
+                entityLocker.runHolding(handle, task);
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * Drops the pending tasks of an entity whose lock could not be taken.
+     */
+    private void abandon(T entityId, Throwable lockFailure) {
+        fail(lockFailure);
+        Group group = groups.remove(entityId);
+        inFlight.release(group.tasks.size());
+    }
+
+    private void fail(Throwable e) {
+        if (!failure.compareAndSet(null, e)) {
+            Throwable first = failure.get();
+            if (first != null && first != e) {
+                first.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Tasks of an entity waiting for their run. Only touched inside map operations on its entity, which serialize them.
+     */
+    static final class Group {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    }
+}
@@ -1,106 +1,221 @@
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 /**
  * This class manages states of entities and threads and detecting deadlocks before they occured.
  * It works properly only if caller executes corresponding methods before/after acquiring/releasing locks.
+ * <p>
+ * The detector holds no monitor and no shared map. Threads are represented by their {@link LockOwner} tokens: lock
+ * ownership is published by the {@link EntityLock} itself and the awaited lock on the token of the waiting owner,
+ * so locks on unrelated entities never contend on the detector. An owner publishes its wait before it walks the
+ * wait-for graph, therefore out of two threads closing a cycle at the same time at least one will see the other
+ * and refuse to wait.
+ * <p>
+ * A lock may be held by one exclusive owner or by several shared owners, so a waiting owner may be blocked by
+ * more than one owner. An exclusive wait is blocked by the exclusive owner and all shared owners, a shared wait by the
+ * exclusive owner and, while threads are queued for the exclusive lock which a fair lock lets go first, by the shared
+ * owners those queued threads wait for.
+ * <p>
+ * Not every wait needs the walk. A thread holding no locks cannot be part of a cycle. Threads taking several locks in
+ * one global order cannot form a cycle among themselves either, so a cycle always includes an unordered waiter: a thread
+ * waiting while holding locks taken in arbitrary order. Unordered waiters announce themselves before registering their
+ * edge, and ordered waiters only walk the graph while some unordered waiter exists. Whichever of the two registers
+ * last is then guaranteed to walk and see the other.
+ * <p>
+ * Alternatively the detector can leave deadlocks to a {@link DeadlockSweeper}, or ignore them altogether, see
+ * {@link EntityLocker.DeadlockStrategy}. Waits are then not checked at all, and the sweeper aborts one wait of every
+ * cycle it finds afterwards.
  * */
-public class DeadlockDetector<T> {
-    private final ConcurrentHashMap<T, Long> lockOwningThreadsMap = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Long, T> lockWaitingThreadsMap = new ConcurrentHashMap<>();
-
-
-    @SuppressWarnings("unused") // I am planning to use this method in future
-    public synchronized void beforeTryingToAcquireLock(T entityId) {
-        long threadId = Thread.currentThread().getId();
-        lockWaitingThreadsMap.put(threadId, entityId);
+public class DeadlockDetector {
+    private final AtomicInteger unorderedWaiters = new AtomicInteger();
+    // Checks which fell back from the chain walk to the full walk, only read by tests
+    final LongAdder fullWalks = new LongAdder();
+    private EntityLocker.DeadlockStrategy strategy = EntityLocker.DeadlockStrategy.PREVENT;
+    private DeadlockSweeper sweeper;
+
+    /**
+     * Switches the strategy, starting or stopping the sweeps as needed.
+     *
+     * @param sweepIntervalInMilliseconds time between two sweeps, only used by {@link EntityLocker.DeadlockStrategy#DETECT}
+     */
+    void setStrategy(EntityLocker.DeadlockStrategy strategy, long sweepIntervalInMilliseconds, EntityLocker.DeadlockVictim victim) {
+        if (sweeper != null) {
+            sweeper.stop();
+            sweeper = null;
+        }
+        this.strategy = strategy;
+        if (strategy == EntityLocker.DeadlockStrategy.DETECT) {
+            sweeper = new DeadlockSweeper(sweepIntervalInMilliseconds, victim);
+        }
     }
 
-    public synchronized void afterUnsuccessfulAcquire(T entityId) {
-        long threadId = Thread.currentThread().getId();
-        lockWaitingThreadsMap.remove(threadId);
-        System.out.println("afterUnsuccessfulAcquire: threadId=" + threadId + ", entityId=" + entityId);
+    /**
+     * Tells whether waits have to be checked before they start, as opposed to being left to the sweeper or ignored.
+     */
+    boolean checksEveryWait() {
+        return strategy == EntityLocker.DeadlockStrategy.PREVENT;
     }
 
-    public synchronized void afterAcquiringLock(T entityId) {
-        long threadId = Thread.currentThread().getId();
-        lockOwningThreadsMap.put(entityId, threadId);
-        lockWaitingThreadsMap.remove(threadId);
-        System.out.println("afterAcquiringLock: threadId=" + threadId + ", entityId=" + entityId);
+    /**
+     * Registers a wait with the sweeper, if there is one, which is going to check it later.
+     *
+     * @param heldLocks number of locks held by the waiting thread, which may decide the victim
+     */
+    void beforeUncheckedWait(LockOwner owner, EntityLock lock, boolean shared, int heldLocks) {
+        if (sweeper != null) {
+            owner.wait = new LockOwner.Wait(lock, shared, Thread.currentThread(), System.nanoTime(), heldLocks);
+            sweeper.register(owner);
+        }
     }
 
-    public synchronized void afterReleasingLock(T entityId) {
-        long threadId = Thread.currentThread().getId();
-        lockOwningThreadsMap.remove(entityId, threadId);
-        System.out.println("afterReleasingLock: threadId=" + threadId + ", entityId=" + entityId);
+    /**
+     * Registers a wait which needs no deadlock check, because the thread holds no other lock.
+     */
+    public void beforeTryingToAcquireLock(LockOwner owner, EntityLock lock, boolean shared) {
+        owner.wait = new LockOwner.Wait(lock, shared);
     }
 
-    public synchronized boolean isDeadlockSafe(T currentEntityId) {
+    public void afterUnsuccessfulAcquire(LockOwner owner) {
+        afterWaiting(owner);
+    }
 
-        long currentThreadId = Thread.currentThread().getId();
+    public void afterAcquiringLock(LockOwner owner) {
+        afterWaiting(owner);
+    }
 
-        System.out.println("isDeadlockSafe:begin: threadId=" + currentThreadId + ", entityId=" + currentEntityId);
+    private void afterWaiting(LockOwner owner) {
+        owner.wait = null;
+        if (sweeper != null) {
+            sweeper.unregister(owner);
+        }
+    }
 
-        printLockOwnersMap();
-        printEntitiesWaitedByThreads();
+    /**
+     * Must be called before {@link #isDeadlockSafe} by a thread that is going to wait while holding locks taken
+     * in arbitrary order, and must be paired with {@link #afterUnorderedWait}.
+     */
+    public void beforeUnorderedWait() {
+        unorderedWaiters.incrementAndGet();
+    }
 
-        if (lockOwningThreadsMap.get(currentEntityId) == null || lockOwningThreadsMap.get(currentEntityId) == currentThreadId ) {
-            lockWaitingThreadsMap.put(currentThreadId,currentEntityId);
-            System.out.println("isDeadlockSafe:Safe: threadId=" + currentThreadId + ", entityId=" + currentEntityId);
-            return true;
-        }
+    public void afterUnorderedWait() {
+        unorderedWaiters.decrementAndGet();
+    }
 
-        T entityId = currentEntityId;
+    /**
+     * Deadlock check for a thread which takes locks in the global lock order and holds only locks preceding
+     * the requested one. The wait-for graph is walked only if some unordered waiter could close a cycle.
+     */
+    public boolean isDeadlockSafeInLockOrder(LockOwner owner, EntityLock currentLock, boolean shared) {
+        owner.wait = new LockOwner.Wait(currentLock, shared);
+        return unorderedWaiters.get() == 0 || isDeadlockSafe(owner);
+    }
 
-        while (entityId != null) {
-            System.out.println("isDeadlockSafe: Begin Loop:entityId=" + entityId + ", currentThreadId=" + currentThreadId);
+    public boolean isDeadlockSafe(LockOwner owner, EntityLock currentLock, boolean shared) {
+        // Publish the edge before walking, so a concurrent walker closing the same cycle can see it
+        owner.wait = new LockOwner.Wait(currentLock, shared);
+        return isDeadlockSafe(owner);
+    }
 
-            if(lockOwningThreadsMap.get(entityId) == null) {
-                /*Thread already present in lockWaitingThreadsMap but not in lockOwningThreadsMap.
-                * It can happen only if the waiting thread wil become locker thread, i.e. that thread is "waiting for itself"
-                */
-                lockWaitingThreadsMap.put(currentThreadId,currentEntityId);
-                System.out.println("isDeadlockSafe:Safe: threadId=" + currentThreadId + ", entityId=" + currentEntityId);
+    /**
+     * Searches the owners transitively blocking the given owner for the owner itself. Usually every owner on the way
+     * is blocked by a single exclusive holder, and the owners form a chain which is followed without allocating.
+     * Only a lock whose shared owners block the wait makes the graph branch and the full walk necessary.
+     * <p>
+     * Without a global monitor the walk may observe a transient cycle between other owners. The chain walk detects it
+     * with Brent's algorithm: a remembered owner is replaced at every power of two steps, and reaching it again means
+     * the chain loops without passing the current owner.
+     */
+    private boolean isDeadlockSafe(LockOwner currentOwner) {
+        LockOwner waitingOwner = currentOwner;
+        LockOwner remembered = currentOwner;
+        int power = 1;
+        int steps = 0;
+
+        for (;;) {
+            LockOwner.Wait wait = waitingOwner.wait;
+            if (wait == null) {
                 return true;
             }
+            EntityLock lock = wait.lock;
+            if ((!wait.shared || lock.hasQueuedWriters()) && lock.hasReaders()) {
+                fullWalks.increment();
+                return walkWaitForGraph(currentOwner);
+            }
 
-            long holderThreadId = lockOwningThreadsMap.get(entityId);
-
-            if (currentThreadId==holderThreadId) {
+            LockOwner holder = LockOwner.holderOf(lock);
+            if (holder == null || holder == waitingOwner) {
+                return true;
+            }
+            if (holder == currentOwner) {
+                currentOwner.wait = null;
                 return false; //Loop detected
             }
-
-            entityId = lockWaitingThreadsMap.get(holderThreadId);
-
-            System.out.println("isDeadlockSafe: End Loop: holderThreadId=" + holderThreadId + ", entityId=" + entityId);
-
+            if (holder == remembered) {
+                return true;
+            }
+            if (++steps == power) {
+                remembered = holder;
+                power <<= 1;
+                steps = 0;
+            }
+            waitingOwner = holder;
         }
-        lockWaitingThreadsMap.put(currentThreadId,currentEntityId);
-        System.out.println("isDeadlockSafe: After acquiring lock : currentThreadId=" +  currentThreadId + ", entityId=" + currentEntityId);
-        return true;
     }
 
-    private void printEntitiesWaitedByThreads() {
-
-        System.out.println("-----------entitiesWaitedByThreadContent start----------------:");
+    /**
+     * Searches the whole wait-for graph reachable from the given owner for the owner itself, visiting every owner
+     * at most once.
+     */
+    boolean walkWaitForGraph(LockOwner currentOwner) {
+        Set<LockOwner> visited = new HashSet<>();
+        ArrayDeque<LockOwner> pending = new ArrayDeque<>();
+        pending.push(currentOwner);
+
+        while (!pending.isEmpty()) {
+            LockOwner waitingOwner = pending.pop();
+            LockOwner.Wait wait = waitingOwner.wait;
+            if (wait == null) {
+                continue;
+            }
+            EntityLock lock = wait.lock;
 
-        for(Map.Entry<Long, T> entry:lockWaitingThreadsMap.entrySet()) {
-            System.out.println("Thread = " + entry.getKey() + ", waiting for entity = " + entry.getValue());
+            LockOwner holder = LockOwner.holderOf(lock);
+            if (holder != null && !follow(currentOwner, waitingOwner, holder, visited, pending)) {
+                return false;
+            }
+            if (!wait.shared || lock.hasQueuedWriters()) {
+                for (LockOwner reader : lock.readers()) {
+                    if (!follow(currentOwner, waitingOwner, reader, visited, pending)) {
+                        return false;
+                    }
+                }
+            }
         }
-
-        System.out.println("-----------entitiesWaitedByThreadContent end----------------:");
-
+        return true;
     }
 
-    private void printLockOwnersMap() {
-
-        System.out.println("-----------lockOwnersMapContent start----------------:");
-
-        for(Map.Entry<T, Long> entry:lockOwningThreadsMap.entrySet()) {
-            System.out.println("Entity = " + entry.getKey() + ", is locked by Thread = " + entry.getValue());
+    /**
+     * Follows the edge from a waiting owner to an owner blocking it.
+     *
+     * @return false if the edge leads back to the current owner, whose wait is withdrawn then
+     */
+    private static boolean follow(LockOwner currentOwner, LockOwner waitingOwner, LockOwner blockingOwner,
+                                  Set<LockOwner> visited, ArrayDeque<LockOwner> pending) {
+        if (blockingOwner == waitingOwner) {
+            //The waiting owner is about to become holder itself, i.e. that owner is "waiting for itself"
+            return true;
         }
-
-        System.out.println("-----------lockOwnersMapContent end----------------:");
-
+        if (blockingOwner == currentOwner) {
+            currentOwner.wait = null;
+            return false; //Loop detected
+        }
+        if (visited.add(blockingOwner)) {
+            pending.push(blockingOwner);
+        }
+        return true;
     }
 
 }
@@ -0,0 +1,232 @@
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background deadlock detection: instead of checking the wait-for graph before every wait, waiting owners are only
+ * registered, and a daemon thread periodically searches the graph for cycles. In every cycle found one owner is chosen
+ * as the victim and its wait is aborted, which makes it fail with {@link EntityLocker.DeadlockPreventedException}
+ * and release its locks, so the others can go on.
+ * <p>
+ * The graph is read while it changes, so a cycle is only acted upon if every edge of it is still there when checked a
+ * second time. A real deadlock never goes away by itself, while a cycle assembled from torn reads hardly survives that.
+ * <p>
+ * The sweepers of all lockers share one daemon thread, which refers to them only weakly: a locker nobody uses any more
+ * is collected together with its sweeper, whose sweeps then stop by themselves, so lockers need no closing.
+ */
+class DeadlockSweeper {
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = createScheduler();
+    private static final AtomicInteger ACTIVE_SWEEPS = new AtomicInteger();
+
+    private final Set<LockOwner> waitingOwners = ConcurrentHashMap.newKeySet();
+    private final EntityLocker.DeadlockVictim victim;
+    private final Sweeps sweeps;
+
+    DeadlockSweeper(long intervalInMilliseconds, EntityLocker.DeadlockVictim victim) {
+        this.victim = victim;
+        this.sweeps = new Sweeps(this);
+        sweeps.future = SCHEDULER.scheduleWithFixedDelay(sweeps, intervalInMilliseconds, intervalInMilliseconds, TimeUnit.MILLISECONDS);
+        ACTIVE_SWEEPS.incrementAndGet();
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "entity-locker-deadlock-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Number of sweepers whose sweeps are scheduled, stopped or collected ones excluded.
+     */
+    static int activeSweeps() {
+        return ACTIVE_SWEEPS.get();
+    }
+
+    void register(LockOwner owner) {
+        waitingOwners.add(owner);
+    }
+
+    void unregister(LockOwner owner) {
+        waitingOwners.remove(owner);
+    }
+
+    void stop() {
+        sweeps.cancel();
+    }
+
+    /**
+     * Searches cycles through every waiting owner and aborts one owner of each.
+     *
+     * @return number of aborted waits
+     */
+    int sweep() {
+        int aborted = 0;
+        Set<LockOwner> inspected = new HashSet<>();
+        for (LockOwner owner : waitingOwners) {
+            if (!inspected.add(owner)) {
+                continue;
+            }
+            List<LockOwner> cycle = findCycle(owner);
+            if (cycle == null) {
+                continue;
+            }
+            inspected.addAll(cycle);
+            List<LockOwner.Wait> waits = waitsOf(cycle);
+            if (waits != null && isCycle(cycle, waits) && abort(chooseVictim(waits))) {
+                aborted++;
+            }
+        }
+        return aborted;
+    }
+
+    /**
+     * Searches the owners transitively blocking the given owner for the owner itself.
+     *
+     * @return owners of the cycle, starting with the given one, or null if there is none
+     */
+    private static List<LockOwner> findCycle(LockOwner start) {
+        Map<LockOwner, LockOwner> blockedOwners = new HashMap<>();
+        ArrayDeque<LockOwner> pending = new ArrayDeque<>();
+        pending.push(start);
+
+        while (!pending.isEmpty()) {
+            LockOwner waitingOwner = pending.pop();
+            LockOwner.Wait wait = waitingOwner.wait;
+            if (wait == null || wait.aborted) {
+                continue;
+            }
+            for (LockOwner blockingOwner : blockingOwners(waitingOwner, wait)) {
+                if (blockingOwner == start) {
+                    List<LockOwner> cycle = new ArrayList<>();
+                    for (LockOwner owner = waitingOwner; owner != start; owner = blockedOwners.get(owner)) {
+                        cycle.add(owner);
+                    }
+                    cycle.add(start);
+                    Collections.reverse(cycle);
+                    return cycle;
+                }
+                if (!blockedOwners.containsKey(blockingOwner)) {
+                    blockedOwners.put(blockingOwner, waitingOwner);
+                    pending.push(blockingOwner);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Owners a wait is blocked by, under the same rules as in {@link DeadlockDetector}.
+     */
+    private static List<LockOwner> blockingOwners(LockOwner waitingOwner, LockOwner.Wait wait) {
+        List<LockOwner> blockingOwners = new ArrayList<>();
+        EntityLock lock = wait.lock;
+        LockOwner holder = LockOwner.holderOf(lock);
+        if (holder != null && holder != waitingOwner) {
+            blockingOwners.add(holder);
+        }
+        if (!wait.shared || lock.hasQueuedWriters()) {
+            for (LockOwner reader : lock.readers()) {
+                if (reader != waitingOwner) {
+                    blockingOwners.add(reader);
+                }
+            }
+        }
+        return blockingOwners;
+    }
+
+    private static List<LockOwner.Wait> waitsOf(List<LockOwner> cycle) {
+        List<LockOwner.Wait> waits = new ArrayList<>(cycle.size());
+        for (LockOwner owner : cycle) {
+            LockOwner.Wait wait = owner.wait;
+            if (wait == null || wait.aborted) {
+                return null;
+            }
+            waits.add(wait);
+        }
+        return waits;
+    }
+
+    /**
+     * Checks again that every owner of the cycle still waits with the given wait and is blocked by the next one.
+     */
+    private static boolean isCycle(List<LockOwner> cycle, List<LockOwner.Wait> waits) {
+        for (int i = 0; i < cycle.size(); i++) {
+            LockOwner owner = cycle.get(i);
+            if (owner.wait != waits.get(i)
+                    || !blockingOwners(owner, waits.get(i)).contains(cycle.get((i + 1) % cycle.size()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private LockOwner.Wait chooseVictim(List<LockOwner.Wait> waits) {
+        LockOwner.Wait chosen = waits.get(0);
+        for (LockOwner.Wait wait : waits) {
+            if (victim == EntityLocker.DeadlockVictim.FEWEST_LOCKS_HELD && wait.heldLocks != chosen.heldLocks) {
+                if (wait.heldLocks < chosen.heldLocks) {
+                    chosen = wait;
+                }
+            } else if (wait.startedAt - chosen.startedAt > 0) {
+                chosen = wait;
+            }
+        }
+        return chosen;
+    }
+
+    private static boolean abort(LockOwner.Wait wait) {
+        if (wait.aborted) {
+            return false;
+        }
+        wait.aborted = true;
+        LockSupport.unpark(wait.thread);
+        return true;
+    }
+
+    /**
+     * Periodic sweeps of one sweeper, scheduled on the shared thread; they cancel themselves once the sweeper is gone.
+     */
+    private static final class Sweeps implements Runnable {
+
+        private final WeakReference<DeadlockSweeper> sweeper;
+        volatile ScheduledFuture<?> future;
+
+        Sweeps(DeadlockSweeper sweeper) {
+            this.sweeper = new WeakReference<>(sweeper);
+        }
+
+        @Override
+        public void run() {
+            DeadlockSweeper current = sweeper.get();
+            if (current == null) {
+                cancel();
+            } else {
+                current.sweep();
+            }
+        }
+
+        void cancel() {
+            ScheduledFuture<?> scheduled = future;
+            if (scheduled != null && scheduled.cancel(false)) {
+                ACTIVE_SWEEPS.decrementAndGet();
+            }
+        }
+    }
+}
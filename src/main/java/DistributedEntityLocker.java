@@ -0,0 +1,343 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Entity locking across the nodes of a cluster: one instance per node, all sharing a {@link LeaseCoordinator}.
+ * <p>
+ * Threads of a node are excluded from each other by an {@link EntityLocker}, with its reentrancy, timeouts and deadlock
+ * handling, and the node as a whole is excluded from other nodes by a lease on the entity, which protected code gets
+ * the fencing token of. Leases are cached by the node: a lease outlives the protected code by {@code lingerInMilliseconds},
+ * so reentrant and repeated acquisitions on the same node do not ask the coordinator at all. A background thread renews
+ * the cached leases and releases the idle ones, each in one batched message.
+ * <p>
+ * A node waits for a lease held by another node by polling the coordinator, so waits across nodes are bounded by the
+ * timeout only, deadlocks across nodes are not detected. Protected code outliving the lease, because renewal failed,
+ * keeps running: writes it makes must carry the fencing token, so storage can reject them once a newer one was granted.
+ */
+public class DistributedEntityLocker<T> implements AutoCloseable {
+
+    private static final long MAX_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final Logger LOGGER = Logger.getLogger(DistributedEntityLocker.class.getName());
+
+    final EntityLocker<T> localLocker;
+    final Map<T, Lease<T>> leases = new ConcurrentHashMap<>();
+    // Entities whose retired lease is being released, with the number of releases in flight
+    private final Map<T, Integer> releasing = new ConcurrentHashMap<>();
+    private final LeaseCoordinator<T> coordinator;
+    private final String nodeId;
+    private final long leaseInMilliseconds;
+    private final long leaseNanos;
+    private final long lingerNanos;
+    private final ScheduledExecutorService renewer;
+
+    /**
+     * @param leaseInMilliseconds  how long a lease lasts without renewal; it is renewed every third of that
+     * @param lingerInMilliseconds how long an unused lease stays cached, 0 releases it as soon as protected code ends
+     */
+    public DistributedEntityLocker(LeaseCoordinator<T> coordinator, String nodeId, long leaseInMilliseconds, long lingerInMilliseconds) {
+        this(new EntityLocker<>(), coordinator, nodeId, leaseInMilliseconds, lingerInMilliseconds);
+    }
+
+    /**
+     * @param localLocker excludes the threads of this node, for example one configured by {@link EntityLocker#builder()}
+     */
+    public DistributedEntityLocker(EntityLocker<T> localLocker, LeaseCoordinator<T> coordinator, String nodeId,
+                                   long leaseInMilliseconds, long lingerInMilliseconds) {
+        if (leaseInMilliseconds < 3) {
+            throw new IllegalArgumentException("Lease must last at least 3 milliseconds: " + leaseInMilliseconds);
+        }
+        if (lingerInMilliseconds < 0) {
+            throw new IllegalArgumentException("Linger time must not be negative: " + lingerInMilliseconds);
+        }
+        this.localLocker = localLocker;
+        this.coordinator = coordinator;
+        this.nodeId = nodeId;
+        this.leaseInMilliseconds = leaseInMilliseconds;
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseInMilliseconds);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerInMilliseconds);
+        this.renewer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "entity-locker-lease-renewer-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewalInterval = leaseInMilliseconds / 3;
+        renewer.scheduleWithFixedDelay(this::runRenewer, renewalInterval, renewalInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void lockAndExecute(T entityId, LongConsumer protectedCode) throws InterruptedException, EntityLocker.DeadlockPreventedException {
+        tryLockAndExecute(entityId, protectedCode, 0);
+    }
+
+    /**
+     * Runs the protected code once both the local lock and the lease of the entity are held.
+     *
+     * @param protectedCode         gets the fencing token of the lease
+     * @param timeoutInMilliseconds how long to wait for the local lock and the lease together, 0 means no limit
+     * @return false if the lock or the lease could not be taken within the timeout
+     */
+    public boolean tryLockAndExecute(T entityId, LongConsumer protectedCode, long timeoutInMilliseconds) throws InterruptedException, EntityLocker.DeadlockPreventedException {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMilliseconds);
+
+        try (LockHandle handle = localLocker.acquire(entityId, timeoutInMilliseconds)) {
+            if (handle == null) {
+                return false;
+            }
+
+            Lease<T> lease = takeLease(entityId, timeoutInMilliseconds == 0 ? 0 : deadline);
+            if (lease == null) {
+                return false;
+            }
+
+            try {
+                protectedCode.accept(lease.fencingToken);
+            } finally {
+                putLeaseBack(lease);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stops renewing leases and releases all leases of the node. Protected code still running loses its lease.
+     */
+    @Override
+    public void close() {
+        renewer.shutdownNow();
+        List<T> released = new ArrayList<>(leases.keySet());
+        leases.clear();
+        if (!released.isEmpty()) {
+            coordinator.release(nodeId, released);
+        }
+    }
+
+    /**
+     * Returns the cached lease of the entity, asking the coordinator only if it is missing or expired. The caller holds
+     * the local lock of the entity, so no other thread of the node takes the same lease concurrently, only the renewer
+     * can retire a cached lease nobody uses. A lease retired that way is not asked for again until its release went
+     * through: the coordinator would grant it once more as still held by the node, and the late release would then drop
+     * the lease of the running code.
+     *
+     * @param deadline {@link System#nanoTime()} to give up at, 0 means no limit
+     * @return the lease, counting the caller as its user, or null on timeout
+     */
+    private Lease<T> takeLease(T entityId, long deadline) throws InterruptedException {
+
+        Lease<T> lease = leases.get(entityId);
+        if (lease == null || !lease.retain()) {
+            if (lease != null) {
+                leases.remove(entityId, lease);
+            }
+            lease = new Lease<>(entityId);
+            lease.retain();
+            leases.put(entityId, lease);
+        }
+
+        if (lease.isValid(System.nanoTime())) {
+            return lease;
+        }
+
+        long pollInterval = TimeUnit.MILLISECONDS.toNanos(1);
+        for (;;) {
+            if (!releasing.containsKey(entityId)) {
+                // Expiry is counted from before the request, so the node never thinks it holds a lease longer than the coordinator does
+                long requestedAt = System.nanoTime();
+                long fencingToken;
+                try {
+                    fencingToken = coordinator.tryAcquire(nodeId, entityId, leaseInMilliseconds);
+                } catch (RuntimeException | Error e) {
+                    putLeaseBack(lease);
+                    throw e;
+                }
+                if (fencingToken != 0) {
+                    lease.grant(fencingToken, requestedAt + leaseNanos);
+                    return lease;
+                }
+            }
+
+            long remaining = deadline == 0 ? pollInterval : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                putLeaseBack(lease);
+                return null;
+            }
+            LockSupport.parkNanos(Math.min(pollInterval, remaining));
+            if (Thread.interrupted()) {
+                putLeaseBack(lease);
+                throw new InterruptedException();
+            }
+            pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL_NANOS);
+        }
+    }
+
+    private void putLeaseBack(Lease<T> lease) {
+        lease.lastUsedAt = System.nanoTime();
+        if (lease.release() && lingerNanos == 0 && retire(lease)) {
+            try {
+                if (lease.fencingToken != 0) {
+                    coordinator.release(nodeId, Collections.singletonList(lease.entityId));
+                }
+            } finally {
+                releaseSent(lease.entityId);
+            }
+        }
+    }
+
+    /**
+     * Retires a lease nobody uses and drops it from the cache, marking its entity as being released first, so that a
+     * thread failing to retain the lease is sure to see the mark. The caller has to call {@link #releaseSent} once the
+     * lease is released.
+     *
+     * @return false if the lease is in use
+     */
+    private boolean retire(Lease<T> lease) {
+        releasing.merge(lease.entityId, 1, Integer::sum);
+        if (!lease.retire()) {
+            releaseSent(lease.entityId);
+            return false;
+        }
+        leases.remove(lease.entityId, lease);
+        return true;
+    }
+
+    private void releaseSent(T entityId) {
+        releasing.computeIfPresent(entityId, (id, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * One run of the renewer. A failing coordinator must not end the schedule, which would stop renewals for good, so
+     * the failure is logged and the next run tries again.
+     */
+    private void runRenewer() {
+        try {
+            renewAndReleaseLeases();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Renewing and releasing leases of node " + nodeId + " failed", e);
+        }
+    }
+
+    /**
+     * Releases the leases unused for longer than the linger time and renews all others.
+     */
+    private void renewAndReleaseLeases() {
+
+        long now = System.nanoTime();
+        List<T> toRenew = new ArrayList<>();
+        List<T> toRelease = new ArrayList<>();
+
+        for (Lease<T> lease : leases.values()) {
+            if (now - lease.lastUsedAt >= lingerNanos && retire(lease)) {
+                if (lease.fencingToken != 0) {
+                    toRelease.add(lease.entityId);
+                } else {
+                    releaseSent(lease.entityId);
+                }
+            } else if (lease.isValid(now)) {
+                toRenew.add(lease.entityId);
+            }
+        }
+
+        if (!toRelease.isEmpty()) {
+            try {
+                coordinator.release(nodeId, toRelease);
+            } finally {
+                for (T entityId : toRelease) {
+                    releaseSent(entityId);
+                }
+            }
+        }
+        if (!toRenew.isEmpty()) {
+            long requestedAt = System.nanoTime();
+            Set<T> lost = coordinator.renew(nodeId, toRenew, leaseInMilliseconds);
+            for (T entityId : toRenew) {
+                Lease<T> lease = leases.get(entityId);
+                if (lease != null) {
+                    if (lost.contains(entityId)) {
+                        lease.expire();
+                    } else {
+                        lease.extend(requestedAt + leaseNanos);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lease of an entity cached by the node. Like {@link EntityLock}, it counts its users and is retired once the
+     * renewer evicts it, so a thread never takes a lease that is about to be released.
+     */
+    static final class Lease<T> {
+
+        private static final int RETIRED = -1;
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private static final AtomicIntegerFieldUpdater<Lease<?>> USERS =
+                (AtomicIntegerFieldUpdater) AtomicIntegerFieldUpdater.newUpdater(Lease.class, "users");
+
+        final T entityId;
+        volatile long fencingToken;
+        volatile long expiresAt;
+        volatile long lastUsedAt;
+        private volatile int users;
+
+        Lease(T entityId) {
+            this.entityId = entityId;
+            this.lastUsedAt = System.nanoTime();
+        }
+
+        boolean isValid(long now) {
+            return fencingToken != 0 && expiresAt - now > 0;
+        }
+
+        void grant(long fencingToken, long expiresAt) {
+            this.fencingToken = fencingToken;
+            this.expiresAt = expiresAt;
+        }
+
+        void extend(long expiresAt) {
+            if (expiresAt - this.expiresAt > 0) {
+                this.expiresAt = expiresAt;
+            }
+        }
+
+        void expire() {
+            this.expiresAt = System.nanoTime();
+        }
+
+        boolean retain() {
+            for (;;) {
+                int current = users;
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (USERS.compareAndSet(this, current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return true if that was the last user
+         */
+        boolean release() {
+            return USERS.decrementAndGet(this) == 0;
+        }
+
+        /**
+         * @return true if nobody used the lease and it is now retired
+         */
+        boolean retire() {
+            return USERS.compareAndSet(this, 0, RETIRED);
+        }
+    }
+}
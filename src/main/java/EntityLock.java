@@ -0,0 +1,545 @@
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock guarding a single entity, either exclusively or shared. It is held by {@link LockOwner} tokens rather than
+ * threads: a thread holds it through the owner token of its thread state, an asynchronous task through a token of its
+ * own, so the lock may be released by whatever thread the task continues on. Reentrancy is counted per owner.
+ * <p>
+ * Free locks are taken with a single CAS. Owners that have to wait are queued, threads as well as asynchronous tasks,
+ * and the lock is handed over to them on release: a waiting thread is unparked, a waiting task has its future
+ * completed. The queue is guarded by a small lock which is never held while waiting; like everything else in here it
+ * is AQS based, so waiting virtual threads never pin their carriers. On a fair lock a free lock is not taken
+ * past queued owners, and shared owners queue behind a waiting exclusive owner; an unfair one is, a bounded number of
+ * times in a row.
+ * <p>
+ * Waiters are served in arrival order unless they come with a priority: a waiter of priority {@code p} is queued
+ * as if it had arrived {@code p * }{@value #AGING_STEP} arrivals earlier. It passes at most that many waiters queued
+ * before it, and every later arrival moves the waiters already queued closer to the head, so low priority waiters age
+ * and are not starved by a stream of higher priority ones. Priorities only order the queue; a free lock is taken
+ * as before.
+ * <p>
+ * The exclusive owner and the shared owners are published on the lock, so {@link DeadlockDetector} can walk
+ * the wait-for graph without keeping a shared ownership map.
+ * <p>
+ * The lock also counts the threads that hold or wait for it, so that {@link EntityLocker} can drop it from its
+ * lock table once nobody uses it. Once the count went to zero and the lock was retired it can never be retained again.
+ */
+class EntityLock {
+
+    private static final int FREE = 0;
+    private static final int EXCLUSIVE = -1;
+    private static final int RETIRED = -1;
+    private static final int MAX_BARGES = 8;
+    private static final boolean MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+    private static final int MIN_SPINS = 16;
+    private static final int MAX_SPINS = 4096;
+    // Arrivals a waiter is moved ahead per level of priority
+    static final int AGING_STEP = 32;
+    private static final Comparator<Waiter> QUEUE_ORDER =
+            Comparator.<Waiter>comparingLong(waiter -> waiter.rank).thenComparingLong(waiter -> waiter.arrival);
+    private static final AtomicIntegerFieldUpdater<EntityLock> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(EntityLock.class, "state");
+    private static final AtomicIntegerFieldUpdater<EntityLock> REFERENCES =
+            AtomicIntegerFieldUpdater.newUpdater(EntityLock.class, "references");
+    private static final AtomicLongFieldUpdater<EntityLock> ORDER =
+            AtomicLongFieldUpdater.newUpdater(EntityLock.class, "order");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityLock, ConcurrentSkipListMap> READERS =
+            AtomicReferenceFieldUpdater.newUpdater(EntityLock.class, ConcurrentSkipListMap.class, "readers");
+    private static final AtomicLong NEXT_ORDER = new AtomicLong();
+
+    private final boolean fair;
+    private final boolean spinning;
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(QUEUE_ORDER);
+    // Counts the waiters ever queued, guarded by the queue lock
+    private long arrivals;
+
+    // EXCLUSIVE, FREE or the number of shared owners
+    private volatile int state;
+    private volatile int queued;
+    private volatile int queuedExclusive;
+    // Acquisitions that went past queued owners since the lock was last handed over to one of them
+    private volatile int barged;
+
+    volatile LockOwner owner;
+    // Only touched by the exclusive owner, or by the thread handing the lock over to it
+    private int exclusiveHolds;
+    // Shared owners and their hold counts, created on the first shared acquisition
+    private volatile ConcurrentSkipListMap<LockOwner, int[]> readers;
+    private volatile int references;
+    private volatile long order;
+    // Spins a waiter makes before parking; racy updates only blur the estimate
+    private int spins = MIN_SPINS;
+
+    EntityLock(boolean fair) {
+        this(fair, false);
+    }
+
+    /**
+     * @param spinning whether waiting threads spin for a while before they park
+     */
+    EntityLock(boolean fair, boolean spinning) {
+        this.fair = fair;
+        this.spinning = spinning && MULTIPROCESSOR;
+    }
+
+    /**
+     * Takes the lock only if that needs no waiting. On a fair lock it does not barge ahead of queued owners,
+     * so the fast path keeps the fairness guarantee. Reentrant acquisitions, downgrades included, always go through:
+     * queueing behind the waiters would never end.
+     */
+    boolean tryLockImmediately(LockOwner requester, boolean shared) {
+        if (shared) {
+            int[] holds = readHolds(requester);
+            if (holds != null) {
+                holds[0]++;
+                return true;
+            }
+            if (owner == requester) {
+                // Downgrade: the lock stays exclusive until the owner releases its exclusive hold
+                addReader(requester);
+                return true;
+            }
+            if (mustQueue()) {
+                return false;
+            }
+            for (;;) {
+                int current = state;
+                if (current == EXCLUSIVE) {
+                    return false;
+                }
+                if (STATE.compareAndSet(this, current, current + 1)) {
+                    addReader(requester);
+                    countBarge();
+                    return true;
+                }
+            }
+        }
+        if (owner == requester) {
+            exclusiveHolds++;
+            return true;
+        }
+        if (mustQueue() || !STATE.compareAndSet(this, FREE, EXCLUSIVE)) {
+            return false;
+        }
+        exclusiveHolds = 1;
+        owner = requester;
+        countBarge();
+        return true;
+    }
+
+    /**
+     * Upgrades the shared hold of the requester to an exclusive one, if nobody else holds the lock. The requester keeps
+     * its shared hold, as after a downgrade, so releasing the exclusive hold turns the lock shared again. Only meant for
+     * locks shared between entities, where a thread reading one entity may ask to write another: waiting for the
+     * upgrade of the lock of a single entity would wait for the requester itself.
+     *
+     * @return false if other owners hold the lock shared as well
+     */
+    boolean tryUpgrade(LockOwner requester) {
+        if (readHolds(requester) == null || !STATE.compareAndSet(this, 1, EXCLUSIVE)) {
+            return false;
+        }
+        exclusiveHolds = 1;
+        owner = requester;
+        return true;
+    }
+
+    /**
+     * A fair lock is never taken past queued owners. An unfair one is, but only {@value #MAX_BARGES} times in a row,
+     * so a queued owner is passed over a bounded number of times before the lock is handed over to it.
+     */
+    private boolean mustQueue() {
+        return queued > 0 && (fair || barged >= MAX_BARGES);
+    }
+
+    private void countBarge() {
+        if (queued > 0) {
+            // Not atomic, concurrent shared barges may count once; the bound only needs to be approximate
+            barged++;
+        }
+    }
+
+    /**
+     * Queues the requester and parks the current thread until the lock is handed over to it.
+     * Must only be called after {@link #tryLockImmediately} failed.
+     *
+     * @param timeoutNanos how long to wait, 0 means no limit
+     * @return false if the timeout passed first or the wait of the requester was aborted; the requester is not queued
+     * any more then
+     */
+    boolean lock(LockOwner requester, boolean shared, long timeoutNanos) throws InterruptedException {
+        return lock(requester, shared, timeoutNanos, 0);
+    }
+
+    /**
+     * Like {@link #lock(LockOwner, boolean, long)}, queueing the requester with the given priority.
+     *
+     * @param priority how far the requester moves ahead of the owners queued before it, 0 keeps arrival order and
+     *                 negative priorities fall behind
+     */
+    boolean lock(LockOwner requester, boolean shared, long timeoutNanos, int priority) throws InterruptedException {
+        Waiter waiter = new Waiter(requester, shared, priority, Thread.currentThread(), null, null);
+        enqueue(waiter);
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        if (spinning && !waiter.granted) {
+            spin(waiter, requester, timeoutNanos, deadline);
+        }
+        boolean interrupted = false;
+        while (!waiter.granted) {
+            if (timeoutNanos == 0) {
+                LockSupport.park(this);
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            if (Thread.interrupted()) {
+                interrupted = true;
+                break;
+            }
+            if (requester.isWaitAborted()) {
+                break;
+            }
+        }
+
+        if (!waiter.granted && cancel(waiter)) {
+            if (interrupted) {
+                throw new InterruptedException();
+            }
+            return false;
+        }
+        if (interrupted) {
+            // The lock was handed over right when the thread got interrupted, keep it and let the caller see the interrupt
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Spins while the lock is likely to be handed over soon, sparing the waiter a park and the releasing thread an
+     * unpark when critical sections are short. The number of spins adapts to the lock like the adaptive spinning of
+     * JVM monitors: it doubles whenever the lock was handed over during the spin and halves whenever the waiter had to
+     * park anyway, so locks held for longer than a spin soon stop spinning. Stops early on timeout, interruption or
+     * an aborted wait, which the parking loop then deals with as usual.
+     */
+    private void spin(Waiter waiter, LockOwner requester, long timeoutNanos, long deadline) {
+        int budget = spins;
+        Thread currentThread = Thread.currentThread();
+        for (int i = 0; i < budget; i++) {
+            if (waiter.granted) {
+                spins = Math.min(MAX_SPINS, budget << 1);
+                return;
+            }
+            if (currentThread.isInterrupted() || requester.isWaitAborted()
+                    || timeoutNanos != 0 && deadline - System.nanoTime() <= 0) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        spins = waiter.granted ? Math.min(MAX_SPINS, budget << 1) : Math.max(MIN_SPINS, budget >> 1);
+    }
+
+    /**
+     * Takes the lock without blocking the current thread. If the lock is not free the requester is queued like
+     * a thread, and the returned future is completed on the given executor once the lock is handed over to it.
+     * <p>
+     * The caller may fail the future, e.g. with {@link CompletableFuture#orTimeout}, to stop waiting: the requester
+     * is taken off the queue then, and a lock handed over at the same time is released again.
+     */
+    CompletableFuture<Void> lockAsync(LockOwner requester, boolean shared, Executor executor) {
+        if (tryLockImmediately(requester, shared)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Waiter waiter = new Waiter(requester, shared, 0, null, future, executor);
+        enqueue(waiter);
+        future.whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                cancel(waiter);
+            }
+        });
+        return future;
+    }
+
+    void unlock(LockOwner holder, boolean shared) {
+        if (shared) {
+            int[] holds = readHolds(holder);
+            if (--holds[0] > 0) {
+                return;
+            }
+            readers.remove(holder);
+            if (owner == holder) {
+                // Released a downgrade, the lock is still held exclusively
+                return;
+            }
+            for (;;) {
+                int current = state;
+                if (STATE.compareAndSet(this, current, current - 1)) {
+                    break;
+                }
+            }
+        } else {
+            if (--exclusiveHolds > 0) {
+                return;
+            }
+            owner = null;
+            // After a downgrade the owner still holds the lock shared
+            state = readHolds(holder) != null ? 1 : FREE;
+        }
+
+        // Read after the state changed, while waiters register before they try the state: one of the two sees the other
+        if (queued > 0) {
+            Waiter granted;
+            queueLock.lock();
+            try {
+                granted = grantWaiters();
+            } finally {
+                queueLock.unlock();
+            }
+            dispatch(granted);
+        }
+    }
+
+    private void enqueue(Waiter waiter) {
+        Waiter granted;
+        queueLock.lock();
+        try {
+            waiter.arrival = arrivals++;
+            waiter.rank = waiter.arrival - (long) waiter.priority * AGING_STEP;
+            waiters.add(waiter);
+            queued++;
+            if (!waiter.shared) {
+                queuedExclusive++;
+            }
+            // The lock may have been released after the requester failed to take it
+            granted = grantWaiters();
+        } finally {
+            queueLock.unlock();
+        }
+        dispatch(granted);
+    }
+
+    /**
+     * Takes a waiter which has not been granted the lock off the queue.
+     *
+     * @return false if the lock has already been handed over to the waiter
+     */
+    private boolean cancel(Waiter waiter) {
+        Waiter granted;
+        queueLock.lock();
+        try {
+            if (waiter.granted) {
+                return false;
+            }
+            waiters.remove(waiter);
+            queued--;
+            if (!waiter.shared) {
+                queuedExclusive--;
+            }
+            // A cancelled exclusive waiter may have held back the shared waiters queued behind it
+            granted = grantWaiters();
+        } finally {
+            queueLock.unlock();
+        }
+        dispatch(granted);
+        return true;
+    }
+
+    /**
+     * Hands the lock over to the waiters at the head of the queue, as far as the state allows: one exclusive waiter
+     * or a run of shared ones, taken in queue order. Must be called holding the queue lock; the granted waiters have to be woken up
+     * by {@link #dispatch} after it is released.
+     */
+    private Waiter grantWaiters() {
+        Waiter granted = null;
+        for (Waiter head; (head = waiters.peek()) != null; ) {
+            if (!tryGrant(head)) {
+                break;
+            }
+            waiters.poll();
+            queued--;
+            barged = 0;
+            head.nextGranted = granted;
+            granted = head;
+            if (!head.shared) {
+                queuedExclusive--;
+                break;
+            }
+        }
+        return granted;
+    }
+
+    private boolean tryGrant(Waiter waiter) {
+        if (waiter.shared) {
+            for (;;) {
+                int current = state;
+                if (current == EXCLUSIVE) {
+                    return false;
+                }
+                if (STATE.compareAndSet(this, current, current + 1)) {
+                    break;
+                }
+            }
+            addReader(waiter.owner);
+        } else {
+            if (!STATE.compareAndSet(this, FREE, EXCLUSIVE)) {
+                return false;
+            }
+            exclusiveHolds = 1;
+            owner = waiter.owner;
+        }
+        waiter.granted = true;
+        return true;
+    }
+
+    private void dispatch(Waiter granted) {
+        while (granted != null) {
+            Waiter waiter = granted;
+            granted = waiter.nextGranted;
+            waiter.nextGranted = null;
+            if (waiter.thread != null) {
+                LockSupport.unpark(waiter.thread);
+            } else {
+                waiter.executor.execute(() -> {
+                    if (!waiter.future.complete(null)) {
+                        // The future failed while the lock was handed over, nobody is going to release it
+                        unlock(waiter.owner, waiter.shared);
+                    }
+                });
+            }
+        }
+    }
+
+    private int[] readHolds(LockOwner reader) {
+        ConcurrentSkipListMap<LockOwner, int[]> current = readers;
+        return current == null ? null : current.get(reader);
+    }
+
+    private void addReader(LockOwner reader) {
+        ConcurrentSkipListMap<LockOwner, int[]> current = readers;
+        if (current == null) {
+            READERS.compareAndSet(this, null, new ConcurrentSkipListMap<LockOwner, int[]>());
+            current = readers;
+        }
+        current.put(reader, new int[]{1});
+    }
+
+    Set<LockOwner> readers() {
+        ConcurrentSkipListMap<LockOwner, int[]> current = readers;
+        return current == null ? Collections.emptySet() : current.keySet();
+    }
+
+    boolean hasReaders() {
+        ConcurrentSkipListMap<LockOwner, int[]> current = readers;
+        return current != null && !current.isEmpty();
+    }
+
+    boolean isReadBy(LockOwner reader) {
+        return readHolds(reader) != null;
+    }
+
+    /**
+     * Tells whether some owner, a thread or an asynchronous task, is queued for the lock.
+     */
+    boolean hasQueuedThreads() {
+        return queued > 0;
+    }
+
+    /**
+     * Number of owners, threads and asynchronous tasks, queued for the lock.
+     */
+    int getQueueLength() {
+        return queued;
+    }
+
+    /**
+     * Tells whether some owner is queued for the exclusive lock. On a fair lock new shared owners queue behind it.
+     */
+    boolean hasQueuedWriters() {
+        return queuedExclusive > 0;
+    }
+
+    /**
+     * Position of the lock in the global lock order used when several locks are taken at once. It is assigned on
+     * first use, so locks only ever taken one at a time never touch the shared sequence. All threads see the same
+     * value for as long as they hold a reference to the lock.
+     */
+    long order() {
+        long current = order;
+        if (current == 0) {
+            ORDER.compareAndSet(this, 0, NEXT_ORDER.incrementAndGet());
+            current = order;
+        }
+        return current;
+    }
+
+    /**
+     * Registers one more user of the lock.
+     *
+     * @return false if the lock is already retired, in which case the caller must look up a fresh one
+     */
+    boolean retain() {
+        for (;;) {
+            int current = references;
+            if (current == RETIRED) {
+                return false;
+            }
+            if (REFERENCES.compareAndSet(this, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Unregisters a user of the lock.
+     *
+     * @return true if that was the last user and the lock is now retired, so it has to be removed from the lock table
+     */
+    boolean release() {
+        return REFERENCES.decrementAndGet(this) == 0 && REFERENCES.compareAndSet(this, 0, RETIRED);
+    }
+
+    /**
+     * Owner queued for the lock: either a parked thread or an asynchronous task waiting for its future.
+     */
+    private static final class Waiter {
+        final LockOwner owner;
+        final boolean shared;
+        final int priority;
+        final Thread thread;
+        final CompletableFuture<Void> future;
+        final Executor executor;
+        volatile boolean granted;
+        // Position in the queue, assigned on enqueue under the queue lock
+        long arrival;
+        long rank;
+        // Links the waiters granted at once, until the thread that granted them has woken them up
+        Waiter nextGranted;
+
+        Waiter(LockOwner owner, boolean shared, int priority, Thread thread, CompletableFuture<Void> future, Executor executor) {
+            this.owner = owner;
+            this.shared = shared;
+            this.priority = priority;
+            this.thread = thread;
+            this.future = future;
+            this.executor = executor;
+        }
+    }
+}
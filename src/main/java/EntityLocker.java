@@ -1,50 +1,1192 @@
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 public class EntityLocker<T> {
 
-    final Map<T, ReentrantLock> locks = new ConcurrentHashMap<>();
-    DeadlockDetector<T> deadlockDetector = new DeadlockDetector<>();
+    // Result of protected code that could not run because its lock was not taken in time
+    private static final Object TIMED_OUT = new Object();
+    private static final Invocation<Runnable, Object, RuntimeException> RUN = (protectedCode, ignored) -> {
+        protectedCode.run();
+        return null;
+    };
+    private static final Invocation<Callable<?>, Object, Exception> CALL = (protectedCode, ignored) -> protectedCode.call();
+
+    final LockTable<T> lockTable;
+    final DeadlockDetector deadlockDetector = new DeadlockDetector();
+    final GlobalLock globalLock;
+    private final LockEventListener<? super T> listener;
+    private final LongAdder escalations = new LongAdder();
+    // Completes the futures of asynchronous waiters, so that their continuations never run inside a release
+    private final Executor asyncExecutor = ForkJoinPool.commonPool();
+    private int escalationThreshold;
+
+    public EntityLocker() {
+        this(LockEventListener.noOp());
+    }
+
+    public EntityLocker(LockEventListener<? super T> listener) {
+        this(new EvictingLockTable<>(), listener);
+    }
+
+    private EntityLocker(LockTable<T> lockTable, LockEventListener<? super T> listener) {
+        this(lockTable, listener, new GlobalLock());
+    }
+
+    private EntityLocker(LockTable<T> lockTable, LockEventListener<? super T> listener, GlobalLock globalLock) {
+        this.lockTable = lockTable;
+        this.listener = listener;
+        this.globalLock = globalLock;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Creates a locker which hashes entity IDs onto a fixed pool of locks instead of keeping one lock per ID.
+     * Memory use does not depend on the number of IDs, but IDs sharing a stripe exclude each other.
+     *
+     * @param numberOfStripes size of the pool, rounded up to a power of two
+     */
+    public static <T> EntityLocker<T> striped(int numberOfStripes) {
+        return striped(numberOfStripes, LockEventListener.noOp());
+    }
+
+    public static <T> EntityLocker<T> striped(int numberOfStripes, LockEventListener<? super T> listener) {
+        return new EntityLocker<>(new StripedLockTable<>(numberOfStripes), listener);
+    }
 
 
     public boolean tryLockAndExecute(T entityId, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, DeadlockPreventedException {
+        return tryLockAndExecute(entityId, protectedCode, timeoutInMilliseconds, false);
+    }
 
-        locks.putIfAbsent(entityId, new ReentrantLock(true));
-        ReentrantLock lock = locks.get(entityId);
+    /**
+     * Executes protected code holding the entity lock in shared mode: other readers of the entity may run at the same
+     * time, writers may not. A thread holding the write lock may take the read lock as well (a downgrade), while taking
+     * the write lock while holding only the read lock is refused with {@link DeadlockPreventedException}, as such an
+     * upgrade would wait for itself.
+     *
+     * @param timeoutInMilliseconds how long to wait for the lock, 0 means no limit
+     * @return false if the lock could not be taken within the timeout
+     */
+    public boolean tryReadLockAndExecute(T entityId, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, DeadlockPreventedException {
+        return tryLockAndExecute(entityId, protectedCode, timeoutInMilliseconds, true);
+    }
 
-        if (deadlockDetector.isDeadlockSafe(entityId)) {
-            if (timeoutInMilliseconds != 0) {
-                if (!lock.tryLock(timeoutInMilliseconds, TimeUnit.MILLISECONDS)) {
-                    deadlockDetector.afterUnsuccessfulAcquire(entityId);
+    /**
+     * Same as {@link #tryLockAndExecute}: the write lock of an entity is its exclusive lock.
+     */
+    public boolean tryWriteLockAndExecute(T entityId, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, DeadlockPreventedException {
+        return tryLockAndExecute(entityId, protectedCode, timeoutInMilliseconds, false);
+    }
+
+    private boolean tryLockAndExecute(T entityId, Runnable protectedCode, long timeoutInMilliseconds, boolean shared) throws InterruptedException, DeadlockPreventedException {
+        return lockAndInvoke(entityId, protectedCode, null, RUN, timeoutInMilliseconds, shared, 0) != TIMED_OUT;
+    }
+
+    /**
+     * Runs protected code returning a result, with the same reentrancy, timeout and deadlock handling as
+     * {@link #lockAndExecute}. Exceptions thrown by the code, checked ones included, reach the caller unwrapped.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R lockAndCompute(T entityId, Callable<R> protectedCode) throws Exception {
+        return (R) untimed(lockAndInvoke(entityId, protectedCode, null, CALL, 0, false, 0));
+    }
+
+    /**
+     * Applies protected code to an argument and returns its result. Unlike {@link #lockAndCompute}, the code gets
+     * everything it needs as the argument, so a non-capturing lambda or method reference will do and the caller
+     * allocates nothing per call.
+     */
+    @SuppressWarnings("unchecked")
+    public <A, R> R lockAndApply(T entityId, A argument, Function<? super A, ? extends R> protectedCode) throws InterruptedException, DeadlockPreventedException {
+        return (R) untimed(lockAndInvoke(entityId, protectedCode, argument, Function::apply, 0, false, 0));
+    }
+
+    /**
+     * Result of protected code called without a timeout, which can only have timed out at the deadline of its scope.
+     */
+    private static Object untimed(Object result) {
+        if (result == TIMED_OUT) {
+            throw new DeadlineExceededException();
+        }
+        return result;
+    }
+
+    /**
+     * Common path of all protected code on a single entity. Which kind of code it is, and how to call it, is told by
+     * the invocation, which is always a non-capturing constant, so no call allocates a wrapper.
+     *
+     * @return result of the code, or {@link #TIMED_OUT} if the lock could not be taken within the timeout
+     */
+    private <C, A, E extends Exception> Object lockAndInvoke(T entityId, C protectedCode, A argument, Invocation<C, A, E> invocation,
+                                                              long timeoutInMilliseconds, boolean shared, int priority) throws E, InterruptedException, DeadlockPreventedException {
+
+        ThreadLockHandle<T> handle = acquire(entityId, timeoutInMilliseconds, shared, priority);
+        if (handle == null) {
+            return TIMED_OUT;
+        }
+        try {
+            return invocation.invoke(protectedCode, argument);
+        } finally {
+            handle.close();
+        }
+    }
+
+    /**
+     * Locks the entity for the current thread until the returned handle is closed, for code that is better written as
+     * plain statements than as a lambda:
+     * <pre>{@code
+     * try (LockHandle handle = entityLocker.acquire(entityId, timeout)) {
+     *     if (handle == null) {
+     *         // timed out
+     *     }
+     *     ...
+     * }
+     * }</pre>
+     * Reentrancy, timeout, lock escalation and deadlock handling are the same as for {@link #tryLockAndExecute}, which
+     * is built on this method.
+     * <p>
+     * Handles are pooled per thread and nesting depth, so acquiring allocates nothing. In return a handle must be closed
+     * by the thread that acquired it, in reverse order of acquisition, which try-with-resources guarantees, and must not
+     * be used any more once closed: the next acquisition at the same depth gets the same handle.
+     *
+     * @param timeoutInMilliseconds how long to wait for the lock, 0 means no limit
+     * @return handle releasing the lock, or null if the lock could not be taken within the timeout
+     */
+    public LockHandle acquire(T entityId, long timeoutInMilliseconds) throws InterruptedException, DeadlockPreventedException {
+        return acquire(entityId, timeoutInMilliseconds, false, 0);
+    }
+
+    /**
+     * Same as {@link #acquire}, holding the entity lock in shared mode like {@link #tryReadLockAndExecute}.
+     */
+    public LockHandle acquireRead(T entityId, long timeoutInMilliseconds) throws InterruptedException, DeadlockPreventedException {
+        return acquire(entityId, timeoutInMilliseconds, true, 0);
+    }
+
+    /**
+     * Executes protected code like {@link #tryLockAndExecute}, but waits for the lock until an absolute deadline rather
+     * than for a timeout, and runs the code in a deadline scope: any lock the thread waits for from within the code,
+     * through whatever method of this locker, is given up at the deadline at the latest. A request with a latency
+     * budget thus spends it once over all its nested locks instead of granting each of them a fresh timeout. Nested calls
+     * with a timeout of their own return false once the deadline passed, calls without one throw
+     * {@link DeadlineExceededException}. A nested scope can only tighten the deadline.
+     * <p>
+     * Only waiting is cut short: a free lock is taken even after the deadline passed. A waiter giving up leaves the
+     * queue of the lock and the wait-for graph right away.
+     *
+     * @param deadlineNanos deadline as {@link System#nanoTime()}
+     * @return false if the lock could not be taken before the deadline
+     */
+    public boolean tryLockAndExecuteUntil(T entityId, Runnable protectedCode, long deadlineNanos) throws InterruptedException, DeadlockPreventedException {
+        LockHandle handle = acquireUntil(entityId, deadlineNanos);
+        if (handle == null) {
+            return false;
+        }
+        try {
+            protectedCode.run();
+        } finally {
+            handle.close();
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #acquire} with a deadline like {@link #tryLockAndExecuteUntil}; the deadline scope lasts until the
+     * handle is closed.
+     *
+     * @param deadlineNanos deadline as {@link System#nanoTime()}
+     */
+    public LockHandle acquireUntil(T entityId, long deadlineNanos) throws InterruptedException, DeadlockPreventedException {
+        GlobalLock.ThreadState threadState = globalLock.threadState();
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        ThreadLockHandle<T> handle = acquire(threadState, entityId, capToScope(threadState, remainingNanos > 0 ? remainingNanos : -1), false, 0);
+        // The handle has saved the enclosing scope, which it restores on close
+        if (handle != null && (!threadState.hasDeadline || deadlineNanos - threadState.deadline < 0)) {
+            threadState.hasDeadline = true;
+            threadState.deadline = deadlineNanos;
+        }
+        return handle;
+    }
+
+    /**
+     * Cuts a wait short at the deadline of the scope the thread runs in, if any.
+     *
+     * @param timeoutNanos how long the caller is willing to wait, 0 means no limit
+     * @return how long to wait: 0 means no limit, a negative value that the deadline has passed and the lock may only be
+     * taken if it is free
+     */
+    private static long capToScope(GlobalLock.ThreadState threadState, long timeoutNanos) {
+        if (!threadState.hasDeadline) {
+            return timeoutNanos;
+        }
+        long remainingNanos = threadState.deadline - System.nanoTime();
+        if (remainingNanos <= 0) {
+            return -1;
+        }
+        return timeoutNanos == 0 || timeoutNanos > remainingNanos ? remainingNanos : timeoutNanos;
+    }
+
+    /**
+     * Timeout for the global lock, which counts in milliseconds: rounded up, at least one millisecond once the deadline
+     * has passed, as 0 would mean no limit. Timeouts {@link TimeUnit#toNanos} saturated at {@code Long.MAX_VALUE} stay
+     * saturated instead of overflowing into a short one.
+     */
+    private static long toMillisRoundingUp(long timeoutNanos) {
+        if (timeoutNanos == 0) {
+            return 0;
+        }
+        if (timeoutNanos > Long.MAX_VALUE - 999_999) {
+            return TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos + 999_999));
+    }
+
+    private ThreadLockHandle<T> acquire(T entityId, long timeoutInMilliseconds, boolean shared, int priority) throws InterruptedException, DeadlockPreventedException {
+        GlobalLock.ThreadState threadState = globalLock.threadState();
+        return acquire(threadState, entityId, capToScope(threadState, TimeUnit.MILLISECONDS.toNanos(timeoutInMilliseconds)), shared, priority);
+    }
+
+    /**
+     * @param timeoutNanos how long to wait, as returned by {@link #capToScope}
+     * @param priority     place in the queue of the entity lock, see {@link #lockAndExecute(Object, int, Runnable)}
+     */
+    private ThreadLockHandle<T> acquire(GlobalLock.ThreadState threadState, T entityId, long timeoutNanos, boolean shared, int priority) throws InterruptedException, DeadlockPreventedException {
+
+        if (globalLock.enterShared(threadState, toMillisRoundingUp(timeoutNanos)) == null) {
+            listener.onTimedOut(entityId);
+            return null;
+        }
+
+        boolean acquired = false;
+        try {
+            ThreadLockHandle<T> handle = handleOf(threadState);
+            if (globalLock.isHeldByCurrentThread()) {
+                // Nothing else can run protected code now, so the entity needs no lock of its own
+                acquired = true;
+            } else if (escalationThreshold > 0 && threadState.heldLocks() >= escalationThreshold
+                    && globalLock.escalate(threadState, toMillisRoundingUp(timeoutNanos))) {
+                releaseEscalatedLocks(threadState);
+                acquired = true;
+            } else {
+                acquired = lockEntity(threadState, handle, entityId, timeoutNanos, shared, priority);
+            }
+            if (acquired) {
+                handle.open(this);
+            }
+            return acquired ? handle : null;
+        } finally {
+            if (!acquired) {
+                globalLock.exitShared(threadState);
+            }
+        }
+    }
+
+    /**
+     * Returns the pooled handle of the current nesting depth, creating it on first use.
+     */
+    @SuppressWarnings("unchecked")
+    private ThreadLockHandle<T> handleOf(GlobalLock.ThreadState threadState) {
+        ThreadLockHandle<T> handle = (ThreadLockHandle<T>) threadState.handle(threadState.depth);
+        if (handle == null) {
+            handle = new ThreadLockHandle<>(threadState, threadState.depth);
+            threadState.setHandle(threadState.depth, handle);
+        }
+        return handle;
+    }
+
+    private boolean lockEntity(GlobalLock.ThreadState threadState, ThreadLockHandle<T> handle, T entityId, long timeoutNanos, boolean shared, int priority)
+            throws InterruptedException, DeadlockPreventedException {
+
+        EntityLock lock = lockTable.acquire(entityId);
+        boolean locked = false;
+
+        try {
+            if (lock.tryLockImmediately(threadState.owner, shared)
+                    || !shared && upgradeStripe(threadState, entityId, lock)) {
+                listener.onAcquired(entityId, false);
+            } else if (isHeldByRunningTask(threadState, lock)) {
+                throw new IllegalStateException("Entity is locked by the asynchronous lock the thread runs code for: " + entityId);
+            } else if (timeoutNanos < 0) {
+                // The deadline of the scope has passed, only a free lock could still be taken
+                listener.onTimedOut(entityId);
+                return false;
+            } else if (!acquireContendedLock(deadlockDetector, listener, threadState.owner, entityId, lock, shared,
+                    priority, timeoutNanos, holdsNoLocks(threadState) ? WaitOrder.NO_LOCKS_HELD : WaitOrder.UNORDERED,
+                    threadState.heldLocks())) {
+                return false;
+            }
+            locked = true;
+
+            threadState.pushHeldLock(entityId, lock, shared);
+            handle.hold(entityId, lock, shared);
+            return true;
+        } finally {
+            if (!locked) {
+                lockTable.release(entityId, lock);
+            }
+        }
+    }
+
+    /**
+     * Tells whether the thread holds no lock at all, neither one of its own nor the asynchronous lock it runs code for,
+     * so that its waits cannot close a cycle.
+     */
+    private static boolean holdsNoLocks(GlobalLock.ThreadState threadState) {
+        return threadState.depth == 1 && threadState.runningFor == null;
+    }
+
+    /**
+     * Tells whether the lock is held by the asynchronous lock the thread runs code for, see {@link #runHolding}. Waiting
+     * for it would never end, as only the thread itself could release it.
+     */
+    private static boolean isHeldByRunningTask(GlobalLock.ThreadState threadState, EntityLock lock) {
+        return threadState.runningFor != null && lock.owner == threadState.runningFor;
+    }
+
+    /**
+     * Takes the write lock of an entity whose lock the thread already reads by way of other entities, which happens
+     * when entities share a stripe. Unlike an upgrade of the same entity this is no deadlock: the stripe is upgraded
+     * if no other thread reads it.
+     *
+     * @return false if the thread does not read the lock, or reads the entity itself, which is left to the deadlock check
+     * @throws StripeCollisionException if other threads read the stripe as well
+     */
+    @SuppressWarnings("unchecked")
+    private boolean upgradeStripe(GlobalLock.ThreadState threadState, T entityId, EntityLock lock) {
+        if (!lock.isReadBy(threadState.owner)) {
+            return false;
+        }
+        for (int i = 0; i < threadState.heldLocks(); i++) {
+            if (threadState.heldLock(i) == lock && threadState.isHeldShared(i)
+                    && lockTable.isSameEntity((T) threadState.heldEntityId(i), entityId)) {
+                return false;
+            }
+        }
+        if (!lock.tryUpgrade(threadState.owner)) {
+            throw new StripeCollisionException();
+        }
+        return true;
+    }
+
+    /**
+     * Handle of a lock taken by a thread through {@link #acquire}. There is one per thread and nesting depth, holding
+     * the entity lock taken at that depth, or no lock when the thread ran under the global lock instead.
+     * <p>
+     * Handles are pooled in the thread state, which the thread local of the global lock keeps for as long as the thread
+     * lives. A handle therefore refers to its locker only while it is acquired: a pooled handle keeping the locker
+     * reachable would keep the thread local, and with it the handle, reachable as well.
+     */
+    private static final class ThreadLockHandle<T> implements LockHandle {
+
+        private final GlobalLock.ThreadState threadState;
+        private final int depth;
+        private EntityLocker<T> locker;
+        private T entityId;
+        private EntityLock lock;
+        private boolean shared;
+        // Deadline scope of the thread when the handle was acquired, restored on close
+        private boolean hadDeadline;
+        private long previousDeadline;
+
+        ThreadLockHandle(GlobalLock.ThreadState threadState, int depth) {
+            this.threadState = threadState;
+            this.depth = depth;
+        }
+
+        void hold(T entityId, EntityLock lock, boolean shared) {
+            this.entityId = entityId;
+            this.lock = lock;
+            this.shared = shared;
+        }
+
+        /**
+         * Marks the handle as acquired from the locker, saving the deadline scope of the thread.
+         */
+        void open(EntityLocker<T> locker) {
+            this.locker = locker;
+            hadDeadline = threadState.hasDeadline;
+            previousDeadline = threadState.deadline;
+        }
+
+        /**
+         * Releases the entity lock and leaves the global lock, as far as the handle holds them.
+         *
+         * @throws IllegalStateException if the handle is not the one acquired last by the current thread
+         */
+        @Override
+        public void close() {
+            if (threadState.depth != depth) {
+                throw new IllegalStateException("Lock handles must be closed in reverse order of acquisition");
+            }
+            EntityLocker<T> heldLocker = locker;
+            EntityLock heldLock = lock;
+            T heldEntityId = entityId;
+            locker = null;
+            lock = null;
+            entityId = null;
+            threadState.hasDeadline = hadDeadline;
+            threadState.deadline = previousDeadline;
+            try {
+                // Once escalated, the lock has already been released together with the other locks of the thread
+                if (heldLock != null && !threadState.escalated) {
+                    threadState.popHeldLock();
+                    heldLock.unlock(threadState.owner, shared);
+                    heldLocker.listener.onReleased(heldEntityId);
+                    heldLocker.lockTable.release(heldEntityId, heldLock);
+                }
+            } finally {
+                heldLocker.globalLock.exitShared(threadState);
+            }
+        }
+    }
+
+    /**
+     * Calls protected code of some kind, passing it the argument if it takes one.
+     */
+    @FunctionalInterface
+    private interface Invocation<C, A, E extends Exception> {
+        Object invoke(C protectedCode, A argument) throws E;
+    }
+
+    /**
+     * Executes protected code holding the locks of all given entities at once.
+     * <p>
+     * The locks are taken in one global lock order, so concurrent calls of this method can never deadlock each other
+     * and their waits skip the wait-for graph walk unless some thread waits while holding locks in arbitrary order.
+     * Calls nested in other protected code hold locks outside that order and are checked as usual.
+     * If not all locks can be taken within the timeout, or the deadlock check refuses one of them, the locks acquired
+     * so far are released before the method returns.
+     *
+     * @param timeoutInMilliseconds how long to wait for all locks together, 0 means no limit
+     * @return false if the locks could not be taken within the timeout
+     */
+    public boolean lockAllAndExecute(Collection<T> entityIds, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, DeadlockPreventedException {
+
+        GlobalLock.ThreadState threadState = globalLock.threadState();
+        long timeoutNanos = capToScope(threadState, TimeUnit.MILLISECONDS.toNanos(timeoutInMilliseconds));
+        if (globalLock.enterShared(threadState, toMillisRoundingUp(timeoutNanos)) == null) {
+            return false;
+        }
+
+        try {
+            if (globalLock.isHeldByCurrentThread()) {
+                protectedCode.run();
+                return true;
+            }
+
+            if (escalationThreshold > 0 && threadState.heldLocks() + entityIds.size() > escalationThreshold
+                    && globalLock.escalate(threadState, toMillisRoundingUp(timeoutNanos))) {
+                releaseEscalatedLocks(threadState);
+                protectedCode.run();
+                return true;
+            }
+
+            return lockAllAndExecuteEntities(threadState, entityIds, protectedCode, timeoutNanos);
+        } finally {
+            globalLock.exitShared(threadState);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean lockAllAndExecuteEntities(GlobalLock.ThreadState threadState, Collection<T> entityIds, Runnable protectedCode, long timeoutNanos) throws InterruptedException, DeadlockPreventedException {
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        Object[] ids = entityIds.toArray();
+        EntityLock[] locks = new EntityLock[ids.length];
+        boolean holdsOtherLocks = !holdsNoLocks(threadState);
+        boolean tracked = false;
+        int retained = 0;
+        int locked = 0;
+
+        try {
+            for (; retained < ids.length; retained++) {
+                locks[retained] = lockTable.acquire((T) ids[retained]);
+            }
+            sortInLockOrder(ids, locks);
+
+            for (; locked < locks.length; locked++) {
+                T entityId = (T) ids[locked];
+                EntityLock lock = locks[locked];
+
+                if (lock.tryLockImmediately(threadState.owner, false) || upgradeStripe(threadState, entityId, lock)) {
+                    listener.onAcquired(entityId, false);
+                    continue;
+                }
+                if (isHeldByRunningTask(threadState, lock)) {
+                    throw new IllegalStateException("Entity is locked by the asynchronous lock the thread runs code for: " + entityId);
+                }
+
+                long remainingNanos = 0;
+                if (timeoutNanos != 0) {
+                    remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        listener.onTimedOut(entityId);
+                        return false;
+                    }
+                }
+                WaitOrder waitOrder = holdsOtherLocks ? WaitOrder.UNORDERED : locked == 0 ? WaitOrder.NO_LOCKS_HELD : WaitOrder.IN_LOCK_ORDER;
+                if (!acquireContendedLock(deadlockDetector, listener, threadState.owner, entityId, lock, false, 0, remainingNanos, waitOrder,
+                        threadState.heldLocks() + locked)) {
                     return false;
                 }
-            } else {
-                lock.lock();
             }
-        } else {
+
+            for (int i = 0; i < locks.length; i++) {
+                threadState.pushHeldLock(ids[i], locks[i], false);
+            }
+            tracked = true;
+            protectedCode.run();
+        } finally {
+            // Once escalated, the locks have already been released together with the other locks of the thread
+            if (!threadState.escalated) {
+                for (int i = locked - 1; i >= 0; i--) {
+                    if (tracked) {
+                        threadState.popHeldLock();
+                    }
+                    locks[i].unlock(threadState.owner, false);
+                    listener.onReleased((T) ids[i]);
+                }
+                for (int i = retained - 1; i >= 0; i--) {
+                    lockTable.release((T) ids[i], locks[i]);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Sorts the entities by the order of their locks; entities sharing a lock end up next to each other.
+     */
+    private static void sortInLockOrder(Object[] ids, EntityLock[] locks) {
+        Integer[] positions = new Integer[locks.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        Arrays.sort(positions, Comparator.comparingLong(i -> locks[i].order()));
+
+        Object[] sortedIds = ids.clone();
+        EntityLock[] sortedLocks = locks.clone();
+        for (int i = 0; i < positions.length; i++) {
+            ids[i] = sortedIds[positions[i]];
+            locks[i] = sortedLocks[positions[i]];
+        }
+    }
+
+    /**
+     * The current thread holds the global lock now, so its entity locks are of no use any more. They are released
+     * right away, which also drops the thread from the lock table and the wait-for graph.
+     */
+    @SuppressWarnings("unchecked")
+    private void releaseEscalatedLocks(GlobalLock.ThreadState threadState) {
+        int numberOfLocks = threadState.heldLocks();
+        for (int i = numberOfLocks - 1; i >= 0; i--) {
+            T heldEntityId = (T) threadState.heldEntityId(i);
+            EntityLock heldLock = threadState.heldLock(i);
+            boolean shared = threadState.isHeldShared(i);
+            heldLock.unlock(threadState.owner, shared);
+            listener.onReleased(heldEntityId);
+            lockTable.release(heldEntityId, heldLock);
+        }
+        threadState.clearHeldLocks();
+        escalations.increment();
+        listener.onLockEscalated(numberOfLocks);
+    }
+
+    /**
+     * Enables lock escalation: a thread already holding {@code threshold} entity locks which asks for one more gets
+     * the global lock instead and releases its entity locks. The global lock is kept until the thread leaves its
+     * outermost protected code. Escalation is skipped when the global lock is not available right away or waiting
+     * for it would deadlock. Must be configured before the locker is shared between threads.
+     *
+     * @param threshold number of held entity locks (reentrant acquisitions included) that triggers escalation, 0 disables it
+     */
+    public void setEscalationThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+        }
+        this.escalationThreshold = threshold;
+    }
+
+    /**
+     * Replaces the deadlock check before every wait by a background thread looking for deadlocks every
+     * {@code intervalInMilliseconds}. Waits then cost nothing extra, but a deadlock lasts until the next sweep finds it,
+     * and only then one thread of it, the victim, fails with {@link DeadlockPreventedException}. Pays off when deadlocks
+     * are rare and threads often wait while holding other locks. Must be configured before the locker is shared
+     * between threads.
+     * <p>
+     * The sweeps of all lockers run on one shared daemon thread, which does not keep the locker reachable: they stop
+     * once the locker is garbage collected, or when sweeping is switched off, so the locker needs no closing.
+     *
+     * @param intervalInMilliseconds time between two sweeps, 0 switches back to checking every wait
+     * @param victim which thread of a deadlock gives up
+     */
+    public void setDeadlockSweeping(long intervalInMilliseconds, DeadlockVictim victim) {
+        if (intervalInMilliseconds < 0) {
+            throw new IllegalArgumentException("intervalInMilliseconds must not be negative: " + intervalInMilliseconds);
+        }
+        deadlockDetector.setStrategy(intervalInMilliseconds > 0 ? DeadlockStrategy.DETECT : DeadlockStrategy.PREVENT, intervalInMilliseconds, victim);
+    }
+
+    /**
+     * Thread that gives up when {@link #setDeadlockSweeping deadlock sweeping} finds a deadlock.
+     */
+    public enum DeadlockVictim {
+        /**
+         * The thread that started waiting last.
+         */
+        YOUNGEST,
+        /**
+         * The thread holding the fewest entity locks, which loses the least work; the youngest one of those.
+         */
+        FEWEST_LOCKS_HELD
+    }
+
+    /**
+     * Number of lock escalations that happened so far.
+     */
+    public long getEscalationCount() {
+        return escalations.sum();
+    }
+
+    /**
+     * Executes protected code which must not run concurrently with any other protected code of this locker.
+     * Protected code on entities that is already running is waited for, new one waits until the global lock is released.
+     * <p>
+     * May be called from protected code on an entity; the lock is then upgraded. If another thread waits for an entity
+     * held by the caller the upgrade could never complete, and {@link DeadlockPreventedException} is thrown instead.
+     *
+     * @param timeoutInMilliseconds how long to wait for the global lock, 0 means no limit
+     * @return false if the global lock could not be taken within the timeout
+     */
+    public boolean globalLockAndExecute(Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, DeadlockPreventedException {
+        long timeoutNanos = capToScope(globalLock.threadState(), TimeUnit.MILLISECONDS.toNanos(timeoutInMilliseconds));
+        return globalLock.executeExclusively(protectedCode, toMillisRoundingUp(timeoutNanos));
+    }
+
+    /**
+     * Slow path, taken only when the lock could not be acquired right away: the thread has to wait,
+     * so it is registered in the wait-for graph and checked for deadlock first, as far as its {@link WaitOrder} requires.
+     * Shared with {@link LongEntityLocker}, which passes no entity ID to its no-op listener.
+     *
+     * @param priority place in the queue of the lock, 0 keeps arrival order
+     * @param timeoutNanos how long to wait, 0 means no limit
+     * @param heldLocks number of entity locks the thread holds, only needed by deadlock sweeping
+     */
+    static <T> boolean acquireContendedLock(DeadlockDetector deadlockDetector, LockEventListener<? super T> listener, LockOwner owner,
+                                            T entityId, EntityLock lock, boolean shared, int priority, long timeoutNanos, WaitOrder waitOrder, int heldLocks)
+            throws InterruptedException, DeadlockPreventedException {
+
+        if (!shared && lock.isReadBy(owner)) {
+            // The write lock waits for all readers to leave, the current thread included
+            listener.onDeadlockPrevented(entityId);
             throw new DeadlockPreventedException();
         }
+        if (!deadlockDetector.checksEveryWait()) {
+            return acquireUncheckedLock(deadlockDetector, listener, owner, entityId, lock, shared, priority, timeoutNanos, heldLocks);
+        }
+        if (waitOrder == WaitOrder.UNORDERED) {
+            deadlockDetector.beforeUnorderedWait();
+        }
+        try {
+            if (!isDeadlockSafe(deadlockDetector, owner, lock, shared, waitOrder)) {
+                listener.onDeadlockPrevented(entityId);
+                throw new DeadlockPreventedException();
+            }
+            listener.onWaitStarted(entityId);
+
+            boolean acquired = false;
+            try {
+                acquired = lock.lock(owner, shared, timeoutNanos, priority);
+            } finally {
+                if (acquired) {
+                    deadlockDetector.afterAcquiringLock(owner);
+                } else {
+                    deadlockDetector.afterUnsuccessfulAcquire(owner);
+                }
+            }
+
+            if (!acquired) {
+                listener.onTimedOut(entityId);
+                return false;
+            }
+            listener.onAcquired(entityId, true);
+            return true;
+        } finally {
+            if (waitOrder == WaitOrder.UNORDERED) {
+                deadlockDetector.afterUnorderedWait();
+            }
+        }
+    }
+
+    /**
+     * Waits without any deadlock check; if the wait turns out to close a cycle, the sweeper, if any, may abort it later.
+     */
+    private static <T> boolean acquireUncheckedLock(DeadlockDetector deadlockDetector, LockEventListener<? super T> listener, LockOwner owner,
+                                                T entityId, EntityLock lock, boolean shared, int priority, long timeoutNanos, int heldLocks)
+            throws InterruptedException, DeadlockPreventedException {
 
-        deadlockDetector.afterAcquiringLock(entityId);
+        deadlockDetector.beforeUncheckedWait(owner, lock, shared, heldLocks);
+        listener.onWaitStarted(entityId);
 
+        boolean acquired = false;
+        boolean aborted = false;
         try {
-            protectedCode.run();
+            acquired = lock.lock(owner, shared, timeoutNanos, priority);
+            aborted = !acquired && owner.isWaitAborted();
         } finally {
-            lock.unlock();
-            deadlockDetector.afterReleasingLock(entityId);
+            if (acquired) {
+                deadlockDetector.afterAcquiringLock(owner);
+            } else {
+                deadlockDetector.afterUnsuccessfulAcquire(owner);
+            }
         }
 
+        if (aborted) {
+            listener.onDeadlockPrevented(entityId);
+            throw new DeadlockPreventedException();
+        }
+        if (!acquired) {
+            listener.onTimedOut(entityId);
+            return false;
+        }
+        listener.onAcquired(entityId, true);
         return true;
     }
 
+    private static boolean isDeadlockSafe(DeadlockDetector deadlockDetector, LockOwner owner, EntityLock lock, boolean shared, WaitOrder waitOrder) {
+        switch (waitOrder) {
+            case NO_LOCKS_HELD:
+                deadlockDetector.beforeTryingToAcquireLock(owner, lock, shared);
+                return true;
+            case IN_LOCK_ORDER:
+                return deadlockDetector.isDeadlockSafeInLockOrder(owner, lock, shared);
+            default:
+                return deadlockDetector.isDeadlockSafe(owner, lock, shared);
+        }
+    }
+
+    /**
+     * Locks of a waiting thread, which decide how much of the wait-for graph it has to check before waiting.
+     */
+    enum WaitOrder {
+        /**
+         * The thread holds no lock, so nobody can wait for it and it cannot be part of a cycle.
+         */
+        NO_LOCKS_HELD,
+        /**
+         * The thread only holds locks preceding the requested one in the global lock order.
+         */
+        IN_LOCK_ORDER,
+        /**
+         * The thread holds locks taken in arbitrary order.
+         */
+        UNORDERED
+    }
+
+    /**
+     * Executes protected code, waiting for the lock as long as it takes, or until the deadline of the enclosing
+     * {@link #tryLockAndExecuteUntil deadline scope}, if any.
+     *
+     * @throws DeadlineExceededException if the deadline of the enclosing scope passed first
+     */
     public void lockAndExecute(T entityId, Runnable protectedCode) throws InterruptedException, DeadlockPreventedException {
-        tryLockAndExecute(entityId, protectedCode, 0);
+        if (!tryLockAndExecute(entityId, protectedCode, 0)) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    /**
+     * Executes protected code like {@link #lockAndExecute(Object, Runnable)}, queueing for a contended lock with the
+     * given priority, so that latency-critical requests need not wait behind batch work. A waiter of priority
+     * {@code p} moves ahead of up to {@code p * 32} waiters queued before it; equal priorities keep arrival order, and
+     * every later arrival moves the waiters already queued closer to the head, so low priority waiters are never
+     * starved. A free lock is taken right away whatever the priority, and reentrant or nested acquisitions, timeouts,
+     * deadline scopes and deadlock prevention work as without one.
+     *
+     * @param priority 0 for the default order, higher values go first, negative ones fall behind
+     */
+    public void lockAndExecute(T entityId, int priority, Runnable protectedCode) throws InterruptedException, DeadlockPreventedException {
+        if (!tryLockAndExecute(entityId, priority, protectedCode, 0)) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    /**
+     * Same as {@link #tryLockAndExecute(Object, Runnable, long)} queueing with a priority like
+     * {@link #lockAndExecute(Object, int, Runnable)}.
+     */
+    public boolean tryLockAndExecute(T entityId, int priority, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, DeadlockPreventedException {
+        return lockAndInvoke(entityId, protectedCode, null, RUN, timeoutInMilliseconds, false, priority) != TIMED_OUT;
+    }
+
+    public CompletableFuture<LockHandle> lockAsync(T entityId) {
+        return lockAsync(entityId, 0);
+    }
+
+    /**
+     * Locks the entity without blocking the current thread. The returned future completes with a handle once the lock
+     * is taken; until then the caller is queued on the entity together with waiting threads. The lock is owned by
+     * the handle, not by a thread, so it may be released from whatever thread the task continues on.
+     * <p>
+     * The lock is not reentrant and is not tracked by the deadlock detection, since the task waits for no other lock.
+     * Locks taken by threads the task blocks on its way are not known to the locker, so they may deadlock.
+     * The future may be cancelled to stop waiting; a timed out or cancelled wait leaves nothing queued behind.
+     *
+     * @param timeoutInMilliseconds how long to wait, 0 means no limit; once passed the future fails with {@link TimeoutException}
+     */
+    public CompletableFuture<LockHandle> lockAsync(T entityId, long timeoutInMilliseconds) {
+        AsyncLockHandle handle = new AsyncLockHandle(entityId);
+        handle.start(timeoutInMilliseconds);
+        return handle.acquired;
+    }
+
+    public <R> CompletableFuture<R> executeAsync(T entityId, Supplier<? extends CompletionStage<R>> protectedCode) {
+        return executeAsync(entityId, protectedCode, 0);
+    }
+
+    /**
+     * Runs asynchronous protected code: the entity is locked as by {@link #lockAsync}, the code is called once the lock
+     * is taken, and the lock is released when the stage returned by the code completes. The code is run as by
+     * {@link #runHolding}, so locking the same entity again from within it fails with {@link IllegalStateException};
+     * stages it leaves to run later on other threads are not covered.
+     *
+     * @param timeoutInMilliseconds how long to wait for the lock, 0 means no limit
+     */
+    public <R> CompletableFuture<R> executeAsync(T entityId, Supplier<? extends CompletionStage<R>> protectedCode, long timeoutInMilliseconds) {
+        return lockAsync(entityId, timeoutInMilliseconds).thenCompose(handle -> {
+            CompletionStage<R> stage;
+            try {
+                stage = callHolding(handle, protectedCode);
+            } catch (RuntimeException | Error e) {
+                handle.close();
+                throw e;
+            }
+            return stage.whenComplete((result, failure) -> handle.close());
+        });
+    }
+
+    /**
+     * Runs code on the current thread on behalf of a handle returned by {@link #lockAsync}. The lock is owned by the
+     * handle and not by the thread, so the code locking the same entity again through this locker would wait for
+     * itself forever; it fails with {@link IllegalStateException} instead. Other entities the code locks are checked for
+     * deadlocks like those of a thread holding locks already, with the lock of the handle as part of the wait-for graph.
+     */
+    void runHolding(LockHandle handle, Runnable code) {
+        GlobalLock.ThreadState threadState = globalLock.threadState();
+        LockOwner enclosing = enterHolding(threadState, handle);
+        try {
+            code.run();
+        } finally {
+            exitHolding(threadState, enclosing);
+        }
+    }
+
+    private <R> R callHolding(LockHandle handle, Supplier<R> code) {
+        GlobalLock.ThreadState threadState = globalLock.threadState();
+        LockOwner enclosing = enterHolding(threadState, handle);
+        try {
+            return code.get();
+        } finally {
+            exitHolding(threadState, enclosing);
+        }
+    }
+
+    /**
+     * @return owner the thread ran code for before, to be restored when the code returns
+     */
+    @SuppressWarnings("unchecked")
+    private LockOwner enterHolding(GlobalLock.ThreadState threadState, LockHandle handle) {
+        LockOwner enclosing = threadState.runningFor;
+        LockOwner handleOwner = ((AsyncLockHandle) handle).owner;
+        // Published before the code can wait, so a walk reaching the lock of the handle goes on with the waits of the thread
+        handleOwner.runBy = threadState.owner;
+        threadState.runningFor = handleOwner;
+        return enclosing;
+    }
+
+    private static void exitHolding(GlobalLock.ThreadState threadState, LockOwner enclosing) {
+        threadState.runningFor.runBy = null;
+        threadState.runningFor = enclosing;
+    }
+
+    /**
+     * Entity lock held by an asynchronous task. It has an owner token of its own and enters the global lock in shared
+     * mode like a thread would, for as long as it waits for or holds the entity lock.
+     */
+    private final class AsyncLockHandle implements LockHandle {
+
+        private final T entityId;
+        private final LockOwner owner = new LockOwner();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        final CompletableFuture<LockHandle> acquired = new CompletableFuture<>();
+        private EntityLock lock;
+
+        AsyncLockHandle(T entityId) {
+            this.entityId = entityId;
+        }
+
+        void start(long timeoutInMilliseconds) {
+            if (timeoutInMilliseconds != 0) {
+                acquired.orTimeout(timeoutInMilliseconds, TimeUnit.MILLISECONDS);
+            }
+            acquired.whenComplete((handle, failure) -> {
+                if (failure instanceof TimeoutException) {
+                    listener.onTimedOut(entityId);
+                }
+            });
+            globalLock.enterSharedAsync(owner, asyncExecutor).thenRun(this::lockEntity);
+        }
+
+        private void lockEntity() {
+            if (acquired.isDone()) {
+                // Timed out or cancelled while a global lock was held
+                globalLock.exitSharedAsync(owner);
+                return;
+            }
+            lock = lockTable.acquire(entityId);
+            CompletableFuture<Void> locked = lock.lockAsync(owner, false, asyncExecutor);
+            boolean waited = !locked.isDone();
+            if (waited) {
+                listener.onWaitStarted(entityId);
+            }
+            locked.whenComplete((ignored, failure) -> {
+                if (failure != null) {
+                    leave();
+                } else if (acquired.complete(this)) {
+                    listener.onAcquired(entityId, waited);
+                } else {
+                    // The wait ended while the lock was being handed over
+                    lock.unlock(owner, false);
+                    leave();
+                }
+            });
+            // Failing the handle future withdraws the queued waiter
+            acquired.whenComplete((handle, failure) -> {
+                if (failure != null) {
+                    locked.completeExceptionally(failure);
+                }
+            });
+        }
+
+        /**
+         * Releases the entity lock. Only the first call has an effect.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                lock.unlock(owner, false);
+                listener.onReleased(entityId);
+                leave();
+            }
+        }
+
+        private void leave() {
+            lockTable.release(entityId, lock);
+            globalLock.exitSharedAsync(owner);
+        }
+    }
+
+    public void readLockAndExecute(T entityId, Runnable protectedCode) throws InterruptedException, DeadlockPreventedException {
+        if (!tryReadLockAndExecute(entityId, protectedCode, 0)) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    public void writeLockAndExecute(T entityId, Runnable protectedCode) throws InterruptedException, DeadlockPreventedException {
+        if (!tryWriteLockAndExecute(entityId, protectedCode, 0)) {
+            throw new DeadlineExceededException();
+        }
     }
 
     public static class DeadlockPreventedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Thrown by a striped locker when a thread reading one entity asks for the write lock of another entity guarded by
+     * the same stripe, while other threads read the stripe as well. Taking the write lock would mean waiting for them
+     * while still holding the stripe shared, and two threads doing so would wait for each other although their
+     * entities are unrelated. The thread keeps the locks it held before; it may retry once it released its read locks,
+     * and more stripes make the collision rarer. A thread that is the only reader of the stripe upgrades it instead.
+     */
+    public static class StripeCollisionException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Thrown by the methods waiting for a lock without a timeout of their own, such as {@link #lockAndExecute}, when
+     * the deadline of the enclosing {@link #tryLockAndExecuteUntil deadline scope} passes before the lock is taken.
+     */
+    public static class DeadlineExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * How a locker deals with threads that wait for each other's entities.
+     */
+    public enum DeadlockStrategy {
+        /**
+         * Every wait is checked beforehand, and refused with {@link DeadlockPreventedException} if it would close
+         * a cycle. The default.
+         */
+        PREVENT,
+        /**
+         * Waits are not checked; a background thread finds deadlocks afterwards and aborts one wait of each, see
+         * {@link #setDeadlockSweeping}.
+         */
+        DETECT,
+        /**
+         * Waits are not checked at all, for callers that always lock in a consistent order. A deadlock then lasts
+         * until the timeouts of the waiting threads pass, or forever without one.
+         */
+        OFF
+    }
+
+    /**
+     * Configures a locker for one type of entities. Every option picks an implementation, so it can be tuned
+     * per entity type:
+     * <ul>
+     * <li>{@link #fair}: a fair lock is never taken past queued threads, so a hot entity is handed over from thread to
+     * thread, parking and unparking every time. An unfair one lets a running thread take a free lock right away, which
+     * is far cheaper on hot entities; a queued thread is passed over only a few times in a row, so it cannot
+     * starve.</li>
+     * <li>{@link #spinning}: threads waiting for an entity spin for a while before they park, which pays off when
+     * protected code is short compared to a context switch. The spin adapts per lock, see {@link EntityLock}.</li>
+     * <li>{@link #deadlockStrategy}: see {@link DeadlockStrategy}.</li>
+     * <li>{@link #initialCapacity} and {@link #concurrencyLevel}: size the lock table for the expected number of entities
+     * locked at once and threads locking at once; the concurrency level also sizes the striped reader indicator of the
+     * global lock.</li>
+     * <li>{@link #stripes}: a fixed pool of locks instead of one per entity, see {@link #striped(int)}.</li>
+     * <li>{@link #equivalence}: which IDs denote the same entity, for array or composite IDs.</li>
+     * </ul>
+     */
+    public static final class Builder<T> {
+
+        private boolean fair = true;
+        private boolean spinning;
+        private DeadlockStrategy deadlockStrategy = DeadlockStrategy.PREVENT;
+        private long sweepIntervalInMilliseconds = 100;
+        private DeadlockVictim deadlockVictim = DeadlockVictim.YOUNGEST;
+        private int initialCapacity = 16;
+        private int concurrencyLevel = Runtime.getRuntime().availableProcessors();
+        private int stripes;
+        private Equivalence<? super T> equivalence;
+        private LockEventListener<? super T> listener = LockEventListener.noOp();
+        private int escalationThreshold;
+
+        private Builder() {
+        }
+
+        public Builder<T> fair(boolean fair) {
+            this.fair = fair;
+            return this;
+        }
+
+        public Builder<T> spinning(boolean spinning) {
+            this.spinning = spinning;
+            return this;
+        }
+
+        /**
+         * {@link DeadlockStrategy#PREVENT} by default. With {@link DeadlockStrategy#DETECT} the locker is swept for
+         * deadlocks in the background, on a daemon thread shared by all lockers. The locker does not own the thread and
+         * needs no closing: its sweeps stop once it is garbage collected, see {@link EntityLocker#setDeadlockSweeping}.
+         */
+        public Builder<T> deadlockStrategy(DeadlockStrategy deadlockStrategy) {
+            this.deadlockStrategy = deadlockStrategy;
+            return this;
+        }
+
+        /**
+         * Sweep settings of {@link DeadlockStrategy#DETECT}, 100 ms and {@link DeadlockVictim#YOUNGEST} by default. The
+         * sweeps run on the shared sweeper thread, see {@link #deadlockStrategy}.
+         */
+        public Builder<T> deadlockSweeping(long intervalInMilliseconds, DeadlockVictim victim) {
+            if (intervalInMilliseconds <= 0) {
+                throw new IllegalArgumentException("intervalInMilliseconds must be positive: " + intervalInMilliseconds);
+            }
+            this.sweepIntervalInMilliseconds = intervalInMilliseconds;
+            this.deadlockVictim = victim;
+            return this;
+        }
+
+        public Builder<T> initialCapacity(int initialCapacity) {
+            if (initialCapacity < 0) {
+                throw new IllegalArgumentException("initialCapacity must not be negative: " + initialCapacity);
+            }
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        public Builder<T> concurrencyLevel(int concurrencyLevel) {
+            if (concurrencyLevel <= 0) {
+                throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+            }
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * @param numberOfStripes size of the lock pool, rounded up to a power of two, 0 for one lock per entity
+         */
+        public Builder<T> stripes(int numberOfStripes) {
+            if (numberOfStripes < 0) {
+                throw new IllegalArgumentException("numberOfStripes must not be negative: " + numberOfStripes);
+            }
+            this.stripes = numberOfStripes;
+            return this;
+        }
+
+        public Builder<T> equivalence(Equivalence<? super T> equivalence) {
+            this.equivalence = equivalence;
+            return this;
+        }
+
+        public Builder<T> listener(LockEventListener<? super T> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * See {@link EntityLocker#setEscalationThreshold}.
+         */
+        public Builder<T> escalationThreshold(int threshold) {
+            if (threshold < 0) {
+                throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+            }
+            this.escalationThreshold = threshold;
+            return this;
+        }
+
+        public EntityLocker<T> build() {
+            LockTable<T> lockTable = stripes > 0
+                    ? new StripedLockTable<>(stripes, fair, spinning, equivalence)
+                    : new EvictingLockTable<>(fair, spinning, initialCapacity, concurrencyLevel, equivalence);
+            EntityLocker<T> entityLocker = new EntityLocker<>(lockTable, listener, new GlobalLock(concurrencyLevel));
+            entityLocker.deadlockDetector.setStrategy(deadlockStrategy, sweepIntervalInMilliseconds, deadlockVictim);
+            entityLocker.escalationThreshold = escalationThreshold;
+            return entityLocker;
+        }
     }
 
 }
@@ -0,0 +1,42 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Decides which entity IDs denote the same entity, in place of {@link Object#equals} and {@link Object#hashCode}.
+ * Needed for IDs whose own methods do not compare contents, such as arrays, and useful for composite IDs whose
+ * hash code is expensive or poorly spread.
+ *
+ * @param <T> type of entity IDs
+ */
+public interface Equivalence<T> {
+
+    int hash(T entityId);
+
+    boolean equivalent(T first, T second);
+
+    /**
+     * Compares arrays, primitive ones included, by their contents, and any other ID with {@code equals}.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Equivalence<T> arrays() {
+        return (Equivalence<T>) ArrayEquivalence.INSTANCE;
+    }
+
+    final class ArrayEquivalence implements Equivalence<Object> {
+        private static final ArrayEquivalence INSTANCE = new ArrayEquivalence();
+
+        private ArrayEquivalence() {
+        }
+
+        @Override
+        public int hash(Object entityId) {
+            // Wrapping keeps the top-level array from being hashed by identity
+            return Arrays.deepHashCode(new Object[]{entityId});
+        }
+
+        @Override
+        public boolean equivalent(Object first, Object second) {
+            return Objects.deepEquals(first, second);
+        }
+    }
+}
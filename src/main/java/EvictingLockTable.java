@@ -0,0 +1,106 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * One lock per entity ID, created on first use and evicted once the last thread holding or waiting for it leaves.
+ * <p>
+ * IDs are used as map keys directly, unless an {@link Equivalence} is given; then each lookup wraps the ID in a key
+ * applying it, which costs an allocation per lookup but lets arrays and similar IDs be locked by their contents.
+ */
+class EvictingLockTable<T> implements LockTable<T> {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    final Map<Object, EntityLock> locks;
+    private final Equivalence<? super T> equivalence;
+    private final Function<Object, EntityLock> newLock;
+
+    EvictingLockTable() {
+        this(true, false, DEFAULT_INITIAL_CAPACITY, 1, null);
+    }
+
+    /**
+     * @param spinning         whether threads waiting for a lock spin before they park
+     * @param concurrencyLevel expected number of threads updating the table at once; the table starts with at least
+     *                         that many bins, so that their first lock creations do not collide on a bin
+     * @param equivalence      decides which IDs are the same entity, null for {@code equals}
+     */
+    EvictingLockTable(boolean fair, boolean spinning, int initialCapacity, int concurrencyLevel, Equivalence<? super T> equivalence) {
+        this.locks = new ConcurrentHashMap<>(initialCapacity, 0.75f, concurrencyLevel);
+        this.equivalence = equivalence;
+        this.newLock = entityId -> new EntityLock(fair, spinning);
+    }
+
+    /**
+     * Returns the lock of the entity, creating it if needed, and counts the caller as its user.
+     * A lock found in the table may have been retired by its last user in the meantime; such a lock is never
+     * handed out, the caller helps to remove it and retries, so no thread can end up waiting on an evicted lock.
+     * <p>
+     * An existing lock is looked up with a plain {@code get}, which enters no monitor. Creating a lock and removing
+     * a retired one do enter the monitor of a map bin, for as long as the map update takes, so locking an entity
+     * nobody else uses takes two bin monitors, one here and one on eviction in {@link #release}. A virtual thread can
+     * be pinned to its carrier during either; a {@link StripedLockTable}, which never evicts, takes none.
+     */
+    @Override
+    public EntityLock acquire(T entityId) {
+        Object key = keyOf(entityId);
+        for (;;) {
+            EntityLock lock = locks.get(key);
+            if (lock == null) {
+                lock = locks.computeIfAbsent(key, newLock);
+            }
+            if (lock.retain()) {
+                return lock;
+            }
+            locks.remove(key, lock);
+        }
+    }
+
+    @Override
+    public boolean isSameEntity(T first, T second) {
+        return true;
+    }
+
+    @Override
+    public void release(T entityId, EntityLock lock) {
+        if (lock.release()) {
+            locks.remove(keyOf(entityId), lock);
+        }
+    }
+
+    @Override
+    public int size() {
+        return locks.size();
+    }
+
+    private Object keyOf(T entityId) {
+        return equivalence == null ? entityId : new EquivalentKey<T>(entityId, equivalence);
+    }
+
+    /**
+     * Map key comparing entity IDs by an {@link Equivalence}.
+     */
+    private static final class EquivalentKey<T> {
+        private final T entityId;
+        private final Equivalence<? super T> equivalence;
+        private final int hash;
+
+        EquivalentKey(T entityId, Equivalence<? super T> equivalence) {
+            this.entityId = entityId;
+            this.equivalence = equivalence;
+            this.hash = equivalence.hash(entityId);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean equals(Object other) {
+            return other instanceof EquivalentKey && equivalence.equivalent(entityId, ((EquivalentKey<T>) other).entityId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
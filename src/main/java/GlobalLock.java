@@ -0,0 +1,363 @@
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock excluding all protected code of an {@link EntityLocker}. Protected code on entities takes it in shared mode,
+ * global protected code in exclusive mode.
+ * <p>
+ * Shared holders are counted in a striped reader indicator: each thread increments a counter of its own stripe,
+ * padded to a cache line, and only when it enters its outermost protected code. As long as no global lock is pending
+ * the entity path therefore touches no cache line shared with other cores. A pending global lock is announced through
+ * a volatile future; new shared holders back off and wait for it while the global owner waits for the counters to drain.
+ * Asynchronous tasks holding entity locks are counted as shared holders as well, on the stripe of their owner token,
+ * and chain their retry on the future instead of blocking.
+ * <p>
+ * A thread already running protected code on entities may take the global lock as well (an upgrade). It then only
+ * waits for the other threads to leave; should one of them wait for an entity the upgrading thread holds,
+ * the upgrade is refused with {@link EntityLocker.DeadlockPreventedException}. Lock escalation is such an upgrade
+ * which is kept until the thread leaves its outermost protected code.
+ */
+class GlobalLock {
+
+    // One counter per 128 bytes, so that neighbouring stripes never share a cache line
+    private static final int STRIDE = 16;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLongArray readers;
+    private final int mask;
+    private final ThreadLocal<ThreadState> threadState;
+    private final ReentrantLock globalOwnersLock = new ReentrantLock();
+
+    private volatile CompletableFuture<Void> pendingGlobalLock;
+    private volatile Thread pendingGlobalOwner;
+    private volatile Thread globalOwner;
+
+    GlobalLock() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrencyLevel expected number of threads entering protected code at once; the reader indicator gets
+     *                         twice as many stripes, rounded up to a power of two, to keep them apart
+     */
+    GlobalLock(int concurrencyLevel) {
+        int stripes = Integer.highestOneBit(concurrencyLevel * 2 - 1) << 1;
+        this.readers = new AtomicLongArray(stripes * STRIDE);
+        this.mask = stripes - 1;
+        this.threadState = ThreadLocal.withInitial(() -> new ThreadState(mask));
+    }
+
+    boolean isHeldByCurrentThread() {
+        return globalOwner == Thread.currentThread();
+    }
+
+    /**
+     * Enters protected code on an entity. Only the outermost call of a thread is counted; nested calls and
+     * calls made under the global lock return immediately.
+     *
+     * @return state of the current thread, or null if a pending global lock did not finish within the timeout
+     */
+    ThreadState enterShared(long timeoutInMilliseconds) throws InterruptedException {
+        return enterShared(threadState.get(), timeoutInMilliseconds);
+    }
+
+    /**
+     * Same as {@link #enterShared(long)} for the state of the current thread, fetched beforehand by {@link #threadState}.
+     */
+    ThreadState enterShared(ThreadState state, long timeoutInMilliseconds) throws InterruptedException {
+        if (state.depth++ > 0 || globalOwner == Thread.currentThread()) {
+            return state;
+        }
+        boolean entered = false;
+        try {
+            entered = awaitShared(state.index, timeoutInMilliseconds);
+            return entered ? state : null;
+        } finally {
+            if (!entered) {
+                state.depth--;
+            }
+        }
+    }
+
+    ThreadState threadState() {
+        return threadState.get();
+    }
+
+    void exitShared(ThreadState state) {
+        if (--state.depth > 0) {
+            return;
+        }
+        if (state.escalated) {
+            state.escalated = false;
+            unlockExclusively();
+        } else if (globalOwner == Thread.currentThread()) {
+            return;
+        }
+        leaveShared(state.index);
+    }
+
+    private void leaveShared(int index) {
+        readers.decrementAndGet(index);
+        if (pendingGlobalLock != null) {
+            Thread waitingGlobalOwner = pendingGlobalOwner;
+            if (waitingGlobalOwner != null) {
+                LockSupport.unpark(waitingGlobalOwner);
+            }
+        }
+    }
+
+    /**
+     * Enters protected code of an asynchronous task, which counts as a shared holder until {@link #exitSharedAsync}.
+     * While a global lock is pending the returned future completes on the given executor once it is released.
+     */
+    CompletableFuture<Void> enterSharedAsync(LockOwner owner, Executor executor) {
+        int index = stripeOf(owner, mask);
+        readers.incrementAndGet(index);
+        CompletableFuture<Void> pending = pendingGlobalLock;
+        if (pending == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        leaveShared(index);
+        return pending.thenComposeAsync(ignored -> enterSharedAsync(owner, executor), executor);
+    }
+
+    void exitSharedAsync(LockOwner owner) {
+        leaveShared(stripeOf(owner, mask));
+    }
+
+    private boolean awaitShared(int index, long timeoutInMilliseconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMilliseconds);
+        for (;;) {
+            readers.incrementAndGet(index);
+            CompletableFuture<Void> pending = pendingGlobalLock;
+            if (pending == null) {
+                return true;
+            }
+            // Step back so the global lock can drain, and come again once it is released
+            readers.decrementAndGet(index);
+            try {
+                if (timeoutInMilliseconds == 0) {
+                    pending.get();
+                } else {
+                    pending.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+            } catch (TimeoutException e) {
+                return false;
+            } catch (ExecutionException e) {
+                // Never completed exceptionally
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs protected code exclusively of all other protected code.
+     *
+     * @return false if the lock could not be taken within the timeout
+     */
+    boolean executeExclusively(Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException {
+        if (globalOwner == Thread.currentThread()) {
+            protectedCode.run();
+            return true;
+        }
+        ThreadState state = threadState.get();
+        if (!lockExclusively(state, state.depth > 0, timeoutInMilliseconds)) {
+            return false;
+        }
+        try {
+            protectedCode.run();
+        } finally {
+            unlockExclusively();
+        }
+        return true;
+    }
+
+    /**
+     * Upgrades the shared lock held by the current thread to the global lock, which is then kept until the thread
+     * leaves its outermost protected code. Escalation is opportunistic: it gives up instead of waiting when another
+     * global lock is pending, and it gives up when waiting for other threads would deadlock or exceed the timeout.
+     *
+     * @return true if the current thread holds the global lock now
+     */
+    boolean escalate(ThreadState state, long timeoutInMilliseconds) throws InterruptedException {
+        try {
+            if (!lockExclusively(state, true, timeoutInMilliseconds)) {
+                return false;
+            }
+        } catch (EntityLocker.DeadlockPreventedException e) {
+            return false;
+        }
+        state.escalated = true;
+        return true;
+    }
+
+    private boolean lockExclusively(ThreadState state, boolean upgrade, long timeoutInMilliseconds) throws InterruptedException {
+        Thread currentThread = Thread.currentThread();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMilliseconds);
+        if (upgrade) {
+            // Another pending global lock waits for this thread to leave its protected code, so waiting for it would never end
+            if (!globalOwnersLock.tryLock()) {
+                throw new EntityLocker.DeadlockPreventedException();
+            }
+        } else if (timeoutInMilliseconds == 0) {
+            globalOwnersLock.lockInterruptibly();
+        } else if (!globalOwnersLock.tryLock(timeoutInMilliseconds, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+
+        pendingGlobalOwner = currentThread;
+        pendingGlobalLock = new CompletableFuture<>();
+        boolean locked = false;
+        try {
+            locked = awaitDrained(state, upgrade ? 1 : 0, timeoutInMilliseconds == 0 ? Long.MAX_VALUE : deadline);
+        } finally {
+            if (locked) {
+                globalOwner = currentThread;
+            } else {
+                unlockExclusively();
+            }
+        }
+        return locked;
+    }
+
+    private void unlockExclusively() {
+        CompletableFuture<Void> pending = pendingGlobalLock;
+        globalOwner = null;
+        pendingGlobalLock = null;
+        pendingGlobalOwner = null;
+        globalOwnersLock.unlock();
+        pending.complete(null);
+    }
+
+    /**
+     * Waits until only the current thread's own share, if any, is left in the reader indicator.
+     */
+    private boolean awaitDrained(ThreadState state, long ownShare, long deadline) throws InterruptedException {
+        long parkNanos = 1_000;
+        while (countShared() != ownShare) {
+            if (ownShare > 0 && state.isAnyThreadWaitingForHeldLocks()) {
+                throw new EntityLocker.DeadlockPreventedException();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(parkNanos, remaining));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        }
+        return true;
+    }
+
+    private long countShared() {
+        long sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum += readers.get(i * STRIDE);
+        }
+        return sum;
+    }
+
+    private static int stripeOf(LockOwner owner, int mask) {
+        return (int) ((owner.id * 0x9E3779B97F4A7C15L) >>> 40 & mask) * STRIDE;
+    }
+
+    /**
+     * Per-thread bookkeeping of one locker: the owner token of the thread, nesting depth of protected code, the entity
+     * locks held by the thread with their modes, whether they have been escalated to the global lock, the deadline
+     * of the current scope and the asynchronous lock the thread runs code for.
+     */
+    static final class ThreadState {
+        final LockOwner owner = new LockOwner();
+        final int index;
+        int depth;
+        boolean escalated;
+        // Deadline, as System.nanoTime(), of the scope the thread runs in; bounds every wait while hasDeadline is set
+        boolean hasDeadline;
+        long deadline;
+        // Owner of the asynchronous lock whose protected code the thread runs, see EntityLocker#runHolding
+        LockOwner runningFor;
+
+        private Object[] heldEntityIds = new Object[8];
+        private EntityLock[] heldLocks = new EntityLock[8];
+        private boolean[] heldShared = new boolean[8];
+        private int held;
+        // Lock handles of the entity locker, one per nesting depth, reused by every acquisition at that depth
+        private Object[] handles = new Object[8];
+
+        ThreadState(int mask) {
+            this.index = stripeOf(owner, mask);
+        }
+
+        Object handle(int depth) {
+            return depth < handles.length ? handles[depth] : null;
+        }
+
+        void setHandle(int depth, Object handle) {
+            if (depth >= handles.length) {
+                handles = Arrays.copyOf(handles, Math.max(depth + 1, handles.length * 2));
+            }
+            handles[depth] = handle;
+        }
+
+        int heldLocks() {
+            return held;
+        }
+
+        void pushHeldLock(Object entityId, EntityLock lock, boolean shared) {
+            if (held == heldLocks.length) {
+                heldEntityIds = Arrays.copyOf(heldEntityIds, held * 2);
+                heldLocks = Arrays.copyOf(heldLocks, held * 2);
+                heldShared = Arrays.copyOf(heldShared, held * 2);
+            }
+            heldEntityIds[held] = entityId;
+            heldShared[held] = shared;
+            heldLocks[held++] = lock;
+        }
+
+        void popHeldLock() {
+            held--;
+            heldEntityIds[held] = null;
+            heldLocks[held] = null;
+        }
+
+        Object heldEntityId(int i) {
+            return heldEntityIds[i];
+        }
+
+        EntityLock heldLock(int i) {
+            return heldLocks[i];
+        }
+
+        boolean isHeldShared(int i) {
+            return heldShared[i];
+        }
+
+        /**
+         * Tells whether some thread is queued for a lock held by this thread. Any thread blocked on this one through
+         * a longer chain is stuck behind such a direct waiter, so checking direct waiters is enough.
+         */
+        boolean isAnyThreadWaitingForHeldLocks() {
+            for (int i = 0; i < held; i++) {
+                if (heldLocks[i].hasQueuedThreads()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void clearHeldLocks() {
+            Arrays.fill(heldEntityIds, 0, held, null);
+            Arrays.fill(heldLocks, 0, held, null);
+            held = 0;
+        }
+    }
+}
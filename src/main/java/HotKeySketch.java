@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded sketch of the most frequent entity IDs, using the Space-Saving algorithm: at most {@code capacity} IDs are
+ * counted, and a new ID takes over the counter of the least frequent one, inheriting its count as the possible error.
+ * Any ID occurring more often than {@code 1/capacity} of all occurrences is guaranteed to be among the counted ones.
+ * <p>
+ * Recording never blocks: an occurrence arriving while another thread updates the sketch is dropped, which at worst
+ * undercounts IDs that are hot enough to collide all the time.
+ */
+class HotKeySketch<T> {
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<T, Counter> counters = new HashMap<>();
+
+    HotKeySketch(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Counts the ID {@code weight} times, which lets a sampled occurrence stand for all the skipped ones.
+     */
+    void record(T entityId, long weight) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Counter counter = counters.get(entityId);
+            if (counter == null) {
+                if (counters.size() < capacity) {
+                    counter = new Counter();
+                } else {
+                    T leastFrequent = leastFrequent();
+                    counter = counters.remove(leastFrequent);
+                    counter.error = counter.count;
+                }
+                counters.put(entityId, counter);
+            }
+            counter.count += weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the counted IDs, most frequent first.
+     */
+    List<LockMetrics.HotKey<T>> snapshot() {
+        List<LockMetrics.HotKey<T>> hotKeys = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Map.Entry<T, Counter> entry : counters.entrySet()) {
+                hotKeys.add(new LockMetrics.HotKey<>(entry.getKey(), entry.getValue().count, entry.getValue().error));
+            }
+        } finally {
+            lock.unlock();
+        }
+        hotKeys.sort((first, second) -> Long.compare(second.count, first.count));
+        return hotKeys;
+    }
+
+    private T leastFrequent() {
+        T leastFrequent = null;
+        long minimum = Long.MAX_VALUE;
+        for (Map.Entry<T, Counter> entry : counters.entrySet()) {
+            if (entry.getValue().count < minimum) {
+                minimum = entry.getValue().count;
+                leastFrequent = entry.getKey();
+            }
+        }
+        return leastFrequent;
+    }
+
+    private static final class Counter {
+        long count;
+        long error;
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link LeaseCoordinator} living in the JVM of its nodes, for tests and benchmarks: several
+ * {@link DistributedEntityLocker}s sharing it behave like the nodes of a cluster. A simulated round trip time can be
+ * added to every message.
+ */
+public class InMemoryLeaseCoordinator<T> implements LeaseCoordinator<T> {
+
+    private final Map<T, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong lastFencingToken = new AtomicLong();
+    private final LongAdder messages = new LongAdder();
+    private final long roundTripNanos;
+
+    public InMemoryLeaseCoordinator() {
+        this(0);
+    }
+
+    /**
+     * @param roundTripNanos time every message takes, spent parked
+     */
+    public InMemoryLeaseCoordinator(long roundTripNanos) {
+        this.roundTripNanos = roundTripNanos;
+    }
+
+    @Override
+    public long tryAcquire(String nodeId, T entityId, long leaseInMilliseconds) {
+        roundTrip();
+        long now = System.nanoTime();
+        long expiresAt = now + TimeUnit.MILLISECONDS.toNanos(leaseInMilliseconds);
+        Lease lease = leases.compute(entityId, (id, current) -> {
+            if (current != null && current.expiresAt - now > 0) {
+                return current.nodeId.equals(nodeId) ? new Lease(nodeId, current.fencingToken, expiresAt) : current;
+            }
+            return new Lease(nodeId, lastFencingToken.incrementAndGet(), expiresAt);
+        });
+        return lease.nodeId.equals(nodeId) ? lease.fencingToken : 0;
+    }
+
+    @Override
+    public Set<T> renew(String nodeId, Collection<T> entityIds, long leaseInMilliseconds) {
+        roundTrip();
+        long now = System.nanoTime();
+        long expiresAt = now + TimeUnit.MILLISECONDS.toNanos(leaseInMilliseconds);
+        Set<T> lost = new HashSet<>();
+        for (T entityId : entityIds) {
+            Lease lease = leases.computeIfPresent(entityId, (id, current) ->
+                    current.nodeId.equals(nodeId) && current.expiresAt - now > 0 ? new Lease(nodeId, current.fencingToken, expiresAt) : current);
+            if (lease == null || !lease.nodeId.equals(nodeId) || lease.expiresAt != expiresAt) {
+                lost.add(entityId);
+            }
+        }
+        return lost;
+    }
+
+    @Override
+    public void release(String nodeId, Collection<T> entityIds) {
+        roundTrip();
+        for (T entityId : entityIds) {
+            leases.computeIfPresent(entityId, (id, current) -> current.nodeId.equals(nodeId) ? null : current);
+        }
+    }
+
+    /**
+     * Number of messages received so far.
+     */
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    private void roundTrip() {
+        messages.increment();
+        if (roundTripNanos > 0) {
+            LockSupport.parkNanos(roundTripNanos);
+        }
+    }
+
+    private static final class Lease {
+        final String nodeId;
+        final long fencingToken;
+        final long expiresAt;
+
+        Lease(String nodeId, long fencingToken, long expiresAt) {
+            this.nodeId = nodeId;
+            this.fencingToken = fencingToken;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
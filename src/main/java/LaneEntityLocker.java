@@ -0,0 +1,282 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Locker that takes no locks: protected code of an entity is routed to one of a fixed number of lanes chosen by its ID,
+ * and each lane runs the code queued in its mailbox one by one on a thread of its own. Code of one entity is exclusive
+ * because it always goes to the same lane, and a hot entity costs no hand-off between threads queuing on its lock,
+ * only one wake-up of its lane per batch of queued code. The calling thread waits until its code has run.
+ * <p>
+ * Semantics follow {@link EntityLocker#tryLockAndExecute}: a timeout bounds the time until the code starts, and code
+ * whose timeout passes while queued never runs. Locking from within protected code runs inline if the entity belongs to
+ * the same lane, which makes it reentrant; otherwise the lane waits for the other lane like a thread waits for a lock,
+ * and a wait that would close a cycle of lanes throws {@link EntityLocker.DeadlockPreventedException}.
+ * <p>
+ * Entities sharing a lane exclude each other as well, and protected code runs on a lane thread, so it sees that
+ * thread's thread locals and not the caller's.
+ */
+public class LaneEntityLocker<T> implements AutoCloseable {
+
+    final Lane[] lanes;
+    private volatile boolean closed;
+
+    public LaneEntityLocker() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public LaneEntityLocker(int numberOfLanes) {
+        if (numberOfLanes < 1) {
+            throw new IllegalArgumentException("Number of lanes must be positive: " + numberOfLanes);
+        }
+        lanes = new Lane[numberOfLanes];
+        for (int i = 0; i < numberOfLanes; i++) {
+            lanes[i] = new Lane(this, "entity-locker-lane-" + i);
+        }
+    }
+
+    public void lockAndExecute(T entityId, Runnable protectedCode) throws InterruptedException, EntityLocker.DeadlockPreventedException {
+        tryLockAndExecute(entityId, protectedCode, 0);
+    }
+
+    /**
+     * @param timeoutInMilliseconds how long the code may stay queued, 0 means no limit
+     * @return false if the code did not start within the timeout
+     */
+    public boolean tryLockAndExecute(T entityId, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, EntityLocker.DeadlockPreventedException {
+
+        Lane lane = laneOf(entityId);
+        Thread currentThread = Thread.currentThread();
+        if (currentThread == lane.thread) {
+            protectedCode.run();
+            return true;
+        }
+        if (closed) {
+            throw new IllegalStateException("Locker is closed");
+        }
+
+        Lane currentLane = currentLane(currentThread);
+        if (currentLane != null) {
+            currentLane.waitingFor = lane;
+            if (closesCycle(currentLane)) {
+                currentLane.waitingFor = null;
+                throw new EntityLocker.DeadlockPreventedException();
+            }
+        }
+
+        try {
+            long deadline = timeoutInMilliseconds == 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMilliseconds);
+            Task task = new Task(protectedCode, currentThread, deadline);
+            if (!lane.submit(task)) {
+                throw new IllegalStateException("Locker is closed");
+            }
+            return task.await();
+        } finally {
+            if (currentLane != null) {
+                currentLane.waitingFor = null;
+            }
+        }
+    }
+
+    /**
+     * Stops the lanes once they have run the code queued so far. Locking afterwards throws {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Lane lane : lanes) {
+            LockSupport.unpark(lane.thread);
+        }
+    }
+
+    private Lane laneOf(T entityId) {
+        int h = entityId.hashCode();
+        return lanes[Math.floorMod(h ^ (h >>> 16), lanes.length)];
+    }
+
+    private Lane currentLane(Thread currentThread) {
+        for (Lane lane : lanes) {
+            if (lane.thread == currentThread) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Follows the lanes waiting for each other from the given one. A lane waits for at most one other lane, so the
+     * wait-for graph of lanes is a set of chains, and the lane closes a cycle if its chain leads back to it.
+     * Two lanes starting to wait for each other at the same time both publish their wait before walking, so at least
+     * one of them sees the cycle.
+     */
+    private boolean closesCycle(Lane lane) {
+        Lane next = lane.waitingFor;
+        for (int i = 0; next != null && i < lanes.length; i++) {
+            if (next == lane) {
+                return true;
+            }
+            next = next.waitingFor;
+        }
+        return false;
+    }
+
+    /**
+     * Serial executor of the protected code of its entities: a mailbox drained by one thread, which parks while the
+     * mailbox is empty.
+     */
+    static final class Lane implements Runnable {
+
+        private final LaneEntityLocker<?> locker;
+        private final Queue<Task> mailbox = new ConcurrentLinkedQueue<>();
+        final Thread thread;
+        volatile Lane waitingFor;
+        private volatile boolean sleeping;
+        private volatile boolean exited;
+
+        Lane(LaneEntityLocker<?> locker, String name) {
+            this.locker = locker;
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * @return false if the lane has stopped, so the task will never run
+         */
+        boolean submit(Task task) {
+            mailbox.offer(task);
+            if (exited) {
+                // Either the last drain of the lane took the task or it is withdrawn here
+                return !task.cancel();
+            }
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                Task task = mailbox.poll();
+                if (task != null) {
+                    task.run();
+                } else if (locker.closed) {
+                    exited = true;
+                    while ((task = mailbox.poll()) != null) {
+                        task.run();
+                    }
+                    return;
+                } else {
+                    // Published before the mailbox is checked again, so a task offered meanwhile unparks the lane
+                    sleeping = true;
+                    if (mailbox.isEmpty() && !locker.closed) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Protected code queued in a lane, with the thread waiting for it.
+     */
+    static final class Task {
+
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int CANCELLED = 3;
+        private static final AtomicIntegerFieldUpdater<Task> STATE = AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
+
+        private final Runnable protectedCode;
+        private final Thread caller;
+        private final long deadline;
+        private volatile int state;
+        private Throwable failure;
+
+        Task(Runnable protectedCode, Thread caller, long deadline) {
+            this.protectedCode = protectedCode;
+            this.caller = caller;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Run by the lane; code cancelled by its caller, or found with its deadline passed, is skipped.
+         */
+        void run() {
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                if (cancel()) {
+                    LockSupport.unpark(caller);
+                }
+                return;
+            }
+            if (!STATE.compareAndSet(this, QUEUED, RUNNING)) {
+                return;
+            }
+            try {
+                protectedCode.run();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            state = DONE;
+            LockSupport.unpark(caller);
+        }
+
+        boolean cancel() {
+            return STATE.compareAndSet(this, QUEUED, CANCELLED);
+        }
+
+        /**
+         * Waits until the code has run, rethrowing what it threw. A caller interrupted or timed out while the code
+         * is still queued cancels it; once the code runs, the caller waits for its end and keeps the interrupt.
+         *
+         * @return false if the code was cancelled because its deadline passed
+         */
+        boolean await() throws InterruptedException {
+            boolean interrupted = false;
+            try {
+                for (;;) {
+                    int current = state;
+                    if (current == DONE) {
+                        if (failure instanceof RuntimeException) {
+                            throw (RuntimeException) failure;
+                        }
+                        if (failure != null) {
+                            throw (Error) failure;
+                        }
+                        return true;
+                    }
+                    if (current == CANCELLED) {
+                        return false;
+                    }
+                    if (current == QUEUED && deadline != 0) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            if (cancel()) {
+                                return false;
+                            }
+                            continue;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                    if (Thread.interrupted()) {
+                        if (cancel()) {
+                            throw new InterruptedException();
+                        }
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Service granting nodes time-limited leases on entities, shared by all nodes of a cluster: the backend of
+ * {@link DistributedEntityLocker}. At most one node holds the lease of an entity at any time, and every grant comes with
+ * a fencing token, larger than all tokens granted before it for the entity, which storage can use to reject writes of a
+ * node whose lease has expired in the meantime.
+ * <p>
+ * Every method stands for one message to the coordinator, so renewals and releases are batched. Implementations
+ * adapt it to whatever provides consensus in the cluster; {@link InMemoryLeaseCoordinator} is a stand-in within
+ * one JVM.
+ *
+ * @param <T> type of entity IDs
+ */
+public interface LeaseCoordinator<T> {
+
+    /**
+     * Grants the lease of the entity to the node if it is free, has expired, or is held by the node already.
+     *
+     * @return fencing token of the lease, a positive number, or 0 if another node holds it
+     */
+    long tryAcquire(String nodeId, T entityId, long leaseInMilliseconds);
+
+    /**
+     * Extends the leases the node holds on the given entities.
+     *
+     * @return entities whose lease the node does not hold any more
+     */
+    Set<T> renew(String nodeId, Collection<T> entityIds, long leaseInMilliseconds);
+
+    /**
+     * Gives up the leases the node holds on the given entities.
+     */
+    void release(String nodeId, Collection<T> entityIds);
+}
@@ -0,0 +1,61 @@
+/**
+ * Receives lock life-cycle events from {@link EntityLocker}. Every callback is invoked synchronously on the thread
+ * the event happened on, so implementations must be cheap and must not block.
+ * <p>
+ * All methods do nothing by default. {@link EntityLocker} uses {@link #noOp()} unless a listener is given, and
+ * since that call site only ever sees one empty implementation the JIT inlines it away completely.
+ *
+ * @param <T> type of entity IDs
+ */
+public interface LockEventListener<T> {
+
+    /**
+     * The entity is taken by another thread and the current thread is about to wait for it.
+     */
+    default void onWaitStarted(T entityId) {
+    }
+
+    /**
+     * The current thread acquired the entity lock, {@code waited} tells if it had to wait for it.
+     */
+    default void onAcquired(T entityId, boolean waited) {
+    }
+
+    /**
+     * The current thread released the entity lock (including reentrant releases).
+     */
+    default void onReleased(T entityId) {
+    }
+
+    /**
+     * The timeout passed before the current thread could lock the entity.
+     */
+    default void onTimedOut(T entityId) {
+    }
+
+    /**
+     * Waiting for the entity would have closed a cycle in the wait-for graph, so the lock was refused.
+     */
+    default void onDeadlockPrevented(T entityId) {
+    }
+
+    /**
+     * The current thread held too many entity locks and escalated them to the global lock.
+     *
+     * @param numberOfLocks number of entity locks released by the escalation
+     */
+    default void onLockEscalated(int numberOfLocks) {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> LockEventListener<T> noOp() {
+        return (LockEventListener<T>) NoOpLockEventListener.INSTANCE;
+    }
+
+    final class NoOpLockEventListener implements LockEventListener<Object> {
+        private static final NoOpLockEventListener INSTANCE = new NoOpLockEventListener();
+
+        private NoOpLockEventListener() {
+        }
+    }
+}
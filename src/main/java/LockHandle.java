@@ -0,0 +1,11 @@
+/**
+ * Entity lock held by the caller. Closing the handle releases the lock, so it fits a try-with-resources statement.
+ */
+public interface LockHandle extends AutoCloseable {
+
+    /**
+     * Releases the lock.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,341 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics of an {@link EntityLocker}, collected as its {@link LockEventListener}: acquisition, contention,
+ * timeout, prevented deadlock and escalation counts, wait and hold time histograms, and the most frequently locked
+ * and most frequently contended entity IDs. Read them with {@link #snapshot()} or over JMX after {@link #registerMBean}.
+ * <p>
+ * Cheap enough to stay enabled: counters are {@link LongAdder}s, histograms are recorded lock-free, and the uncontended
+ * path only reads the clock and updates the hot keys for one in {@code sampleInterval} acquisitions, picked at random
+ * per thread. Waits are slow anyway, so every one is timed and counted as contention. Times are measured on the thread
+ * the lock events happen on, so waits and holds of {@link EntityLocker#lockAsync} handles whose lock is taken or
+ * released on another thread are counted but not timed.
+ *
+ * @param <T> type of entity IDs
+ */
+public class LockMetrics<T> implements LockEventListener<T>, LockMetricsMXBean {
+
+    private static final int DEFAULT_HOT_KEY_CAPACITY = 16;
+    private static final int DEFAULT_SAMPLE_INTERVAL = 16;
+    // Locks a thread can hold before its hold times are dropped; reached only by handles released elsewhere piling up
+    private static final int MAX_TRACKED_LOCKS = 1024;
+
+    private final int sampleInterval;
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contendedAcquisitions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder deadlocksPrevented = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+    private final HotKeySketch<T> hotKeys;
+    private final HotKeySketch<T> contendedKeys;
+    private final ThreadLocal<ThreadTimer> threadTimers = ThreadLocal.withInitial(this::newThreadTimer);
+
+    public LockMetrics() {
+        this(DEFAULT_HOT_KEY_CAPACITY, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * @param hotKeyCapacity number of entity IDs kept by each hot key sketch
+     * @param sampleInterval one in how many acquisitions is timed and counted for the hot keys, 1 records all of them
+     */
+    public LockMetrics(int hotKeyCapacity, int sampleInterval) {
+        if (hotKeyCapacity <= 0) {
+            throw new IllegalArgumentException("hotKeyCapacity must be positive: " + hotKeyCapacity);
+        }
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("sampleInterval must be positive: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        this.hotKeys = new HotKeySketch<>(hotKeyCapacity);
+        this.contendedKeys = new HotKeySketch<>(hotKeyCapacity);
+    }
+
+    @Override
+    public void onWaitStarted(T entityId) {
+        ThreadTimer timer = threadTimers.get();
+        timer.waitingFor = entityId;
+        timer.waitStartedAt = System.nanoTime();
+        contendedKeys.record(entityId, 1);
+    }
+
+    @Override
+    public void onAcquired(T entityId, boolean waited) {
+        acquisitions.increment();
+        ThreadTimer timer = threadTimers.get();
+        long now = 0;
+        if (waited) {
+            contendedAcquisitions.increment();
+            now = System.nanoTime();
+            timer.stopWaiting(entityId, now);
+        }
+        if (--timer.untilSample <= 0) {
+            timer.untilSample = nextSampleDistance();
+            hotKeys.record(entityId, sampleInterval);
+            timer.pushHeldLock(entityId, now != 0 ? now : System.nanoTime());
+        } else {
+            timer.pushHeldLock(entityId, 0);
+        }
+    }
+
+    @Override
+    public void onReleased(T entityId) {
+        threadTimers.get().popHeldLock(entityId);
+    }
+
+    @Override
+    public void onTimedOut(T entityId) {
+        timeouts.increment();
+        threadTimers.get().stopWaiting(entityId, System.nanoTime());
+    }
+
+    @Override
+    public void onDeadlockPrevented(T entityId) {
+        deadlocksPrevented.increment();
+        // A wait aborted by the sweeper ends here; it is no sample, and must not be taken for the next one
+        threadTimers.get().abandonWaiting(entityId);
+    }
+
+    @Override
+    public void onLockEscalated(int numberOfLocks) {
+        escalations.increment();
+    }
+
+    /**
+     * Returns the metrics recorded so far. The parts are read one after another, so events recorded while the snapshot
+     * is taken may be part of some of them only.
+     */
+    public Snapshot<T> snapshot() {
+        return new Snapshot<>(acquisitions.sum(), contendedAcquisitions.sum(), timeouts.sum(), deadlocksPrevented.sum(),
+                escalations.sum(), waitTime.snapshot(), holdTime.snapshot(), hotKeys.snapshot(), contendedKeys.snapshot());
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as {@code EntityLocker:type=LockMetrics,name=<name>}.
+     *
+     * @return name the MBean was registered under
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("EntityLocker:type=LockMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getAcquisitionCount() {
+        return acquisitions.sum();
+    }
+
+    @Override
+    public long getContendedAcquisitionCount() {
+        return contendedAcquisitions.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getDeadlockPreventedCount() {
+        return deadlocksPrevented.sum();
+    }
+
+    @Override
+    public long getEscalationCount() {
+        return escalations.sum();
+    }
+
+    @Override
+    public long getWaitTimeP50() {
+        return waitTime.snapshot().valueAtPercentile(50);
+    }
+
+    @Override
+    public long getWaitTimeP99() {
+        return waitTime.snapshot().valueAtPercentile(99);
+    }
+
+    @Override
+    public long getWaitTimeMax() {
+        return waitTime.snapshot().max();
+    }
+
+    @Override
+    public long getHoldTimeP50() {
+        return holdTime.snapshot().valueAtPercentile(50);
+    }
+
+    @Override
+    public long getHoldTimeP99() {
+        return holdTime.snapshot().valueAtPercentile(99);
+    }
+
+    @Override
+    public long getHoldTimeMax() {
+        return holdTime.snapshot().max();
+    }
+
+    @Override
+    public String[] getHotKeys() {
+        return toStrings(hotKeys.snapshot());
+    }
+
+    @Override
+    public String[] getContendedKeys() {
+        return toStrings(contendedKeys.snapshot());
+    }
+
+    private static String[] toStrings(List<? extends HotKey<?>> hotKeys) {
+        return hotKeys.stream().map(HotKey::toString).toArray(String[]::new);
+    }
+
+    private ThreadTimer newThreadTimer() {
+        return new ThreadTimer(waitTime, holdTime, nextSampleDistance());
+    }
+
+    /**
+     * Random distance to the next sampled acquisition, averaging {@link #sampleInterval}, so that threads cycling
+     * through a fixed sequence of entities do not always sample the same ones.
+     */
+    private int nextSampleDistance() {
+        return sampleInterval == 1 ? 1 : 1 + ThreadLocalRandom.current().nextInt(2 * sampleInterval - 1);
+    }
+
+    /**
+     * Timestamps of the current wait and of the locks held by one thread. Held locks are kept as a stack, which
+     * matches the nesting of protected code; an acquisition that is not sampled keeps a timestamp of 0.
+     * <p>
+     * Static and given the histograms only: as the value of a thread local it stays reachable from every thread that
+     * recorded, and must not keep the metrics reachable with it.
+     */
+    private static final class ThreadTimer {
+        private final LatencyHistogram waitTime;
+        private final LatencyHistogram holdTime;
+        Object waitingFor;
+        long waitStartedAt;
+        int untilSample;
+        Object[] heldEntityIds = new Object[8];
+        long[] acquiredAt = new long[8];
+        int depth;
+
+        ThreadTimer(LatencyHistogram waitTime, LatencyHistogram holdTime, int untilSample) {
+            this.waitTime = waitTime;
+            this.holdTime = holdTime;
+            this.untilSample = untilSample;
+        }
+
+        void stopWaiting(Object entityId, long now) {
+            if (waitingFor == entityId) {
+                waitTime.record(now - waitStartedAt);
+                waitingFor = null;
+            }
+        }
+
+        void abandonWaiting(Object entityId) {
+            if (waitingFor == entityId) {
+                waitingFor = null;
+            }
+        }
+
+        void pushHeldLock(Object entityId, long now) {
+            if (depth == heldEntityIds.length) {
+                if (depth == MAX_TRACKED_LOCKS) {
+                    depth = 0;
+                } else {
+                    heldEntityIds = Arrays.copyOf(heldEntityIds, depth * 2);
+                    acquiredAt = Arrays.copyOf(acquiredAt, depth * 2);
+                }
+            }
+            heldEntityIds[depth] = entityId;
+            acquiredAt[depth] = now;
+            depth++;
+        }
+
+        /**
+         * Pops the lock from the top of the stack, together with anything a lock handle may have left above it.
+         */
+        void popHeldLock(Object entityId) {
+            for (int i = depth - 1; i >= 0; i--) {
+                if (heldEntityIds[i] == entityId) {
+                    if (acquiredAt[i] != 0) {
+                        holdTime.record(System.nanoTime() - acquiredAt[i]);
+                    }
+                    for (int j = i; j < depth; j++) {
+                        heldEntityIds[j] = null;
+                    }
+                    depth = i;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Entity ID with its estimated number of occurrences, which may be overestimated by up to {@code error}.
+     */
+    public static final class HotKey<T> {
+        public final T entityId;
+        public final long count;
+        public final long error;
+
+        HotKey(T entityId, long count, long error) {
+            this.entityId = entityId;
+            this.count = count;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return entityId + "=" + count;
+        }
+    }
+
+    /**
+     * Metrics recorded up to some point in time.
+     */
+    public static final class Snapshot<T> {
+        public final long acquisitions;
+        public final long contendedAcquisitions;
+        public final long timeouts;
+        public final long deadlocksPrevented;
+        public final long escalations;
+        public final LatencyHistogram.Snapshot waitTime;
+        public final LatencyHistogram.Snapshot holdTime;
+        /**
+         * Most frequently locked entity IDs, most frequent first, estimated from the sampled acquisitions.
+         */
+        public final List<HotKey<T>> hotKeys;
+        /**
+         * Entity IDs most frequently waited for, most frequent first.
+         */
+        public final List<HotKey<T>> contendedKeys;
+
+        Snapshot(long acquisitions, long contendedAcquisitions, long timeouts, long deadlocksPrevented, long escalations,
+                 LatencyHistogram.Snapshot waitTime, LatencyHistogram.Snapshot holdTime, List<HotKey<T>> hotKeys, List<HotKey<T>> contendedKeys) {
+            this.acquisitions = acquisitions;
+            this.contendedAcquisitions = contendedAcquisitions;
+            this.timeouts = timeouts;
+            this.deadlocksPrevented = deadlocksPrevented;
+            this.escalations = escalations;
+            this.waitTime = waitTime;
+            this.holdTime = holdTime;
+            this.hotKeys = hotKeys;
+            this.contendedKeys = contendedKeys;
+        }
+
+        @Override
+        public String toString() {
+            return "acquisitions=" + acquisitions + ", contendedAcquisitions=" + contendedAcquisitions + ", timeouts=" + timeouts
+                    + ", deadlocksPrevented=" + deadlocksPrevented + ", escalations=" + escalations
+                    + ", waitTime=[" + waitTime + "], holdTime=[" + holdTime + "], hotKeys=" + hotKeys + ", contendedKeys=" + contendedKeys;
+        }
+    }
+}
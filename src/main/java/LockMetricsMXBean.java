@@ -0,0 +1,38 @@
+/**
+ * Management interface of {@link LockMetrics}. Durations are in nanoseconds and, like the counters, cover everything
+ * recorded since the metrics were created.
+ */
+public interface LockMetricsMXBean {
+
+    long getAcquisitionCount();
+
+    long getContendedAcquisitionCount();
+
+    long getTimeoutCount();
+
+    long getDeadlockPreventedCount();
+
+    long getEscalationCount();
+
+    long getWaitTimeP50();
+
+    long getWaitTimeP99();
+
+    long getWaitTimeMax();
+
+    long getHoldTimeP50();
+
+    long getHoldTimeP99();
+
+    long getHoldTimeMax();
+
+    /**
+     * Most frequently locked entity IDs as {@code id=count}, most frequent first.
+     */
+    String[] getHotKeys();
+
+    /**
+     * Entity IDs most frequently waited for as {@code id=count}, most frequent first.
+     */
+    String[] getContendedKeys();
+}
@@ -0,0 +1,73 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token identifying the holder of entity locks in the wait-for graph, one per thread and {@link EntityLocker}.
+ * It stands in for the thread itself, so the graph needs no map keyed by thread ID: each owner publishes the lock
+ * it waits for on its own token and {@link DeadlockDetector} follows the tokens from lock to lock.
+ */
+class LockOwner implements Comparable<LockOwner> {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    final long id = NEXT_ID.incrementAndGet();
+    // Written only by the owner itself, read by threads walking the wait-for graph
+    volatile Wait wait;
+    // Owner of the thread running code on behalf of this one, see EntityLocker#runHolding
+    volatile LockOwner runBy;
+
+    /**
+     * Returns the owner whose waits keep the locks of this owner held: the owner itself, or, while a thread runs code
+     * on its behalf, the owner of that thread. An asynchronous lock handle waits for nothing by itself, but the code
+     * run for it may, and a cycle through its locks passes through the waits of that code.
+     */
+    LockOwner waitingAs() {
+        LockOwner running = runBy;
+        return running != null ? running : this;
+    }
+
+    /**
+     * Tells whether {@link DeadlockSweeper} chose this owner as the victim of a deadlock, so it has to stop waiting.
+     */
+    boolean isWaitAborted() {
+        Wait current = wait;
+        return current != null && current.aborted;
+    }
+
+    /**
+     * Exclusive holder of the lock as seen by the wait-for graph, see {@link #waitingAs}.
+     */
+    static LockOwner holderOf(EntityLock lock) {
+        LockOwner holder = lock.owner;
+        return holder != null ? holder.waitingAs() : null;
+    }
+
+    @Override
+    public int compareTo(LockOwner other) {
+        return Long.compare(id, other.id);
+    }
+
+    /**
+     * Edge of the wait-for graph: the lock an owner waits for, in shared or exclusive mode.
+     */
+    static final class Wait {
+        final EntityLock lock;
+        final boolean shared;
+        // Only recorded for the deadlock sweeper, which needs them to pick and wake up a victim
+        final Thread thread;
+        final long startedAt;
+        final int heldLocks;
+        volatile boolean aborted;
+
+        Wait(EntityLock lock, boolean shared) {
+            this(lock, shared, null, 0, 0);
+        }
+
+        Wait(EntityLock lock, boolean shared, Thread thread, long startedAt, int heldLocks) {
+            this.lock = lock;
+            this.shared = shared;
+            this.thread = thread;
+            this.startedAt = startedAt;
+            this.heldLocks = heldLocks;
+        }
+    }
+}
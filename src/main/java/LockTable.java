@@ -0,0 +1,21 @@
+/**
+ * Maps entity IDs onto the locks guarding them. Every {@link #acquire} must be paired with a {@link #release}
+ * once the caller neither holds nor waits for the returned lock any more.
+ */
+interface LockTable<T> {
+
+    EntityLock acquire(T entityId);
+
+    void release(T entityId, EntityLock lock);
+
+    /**
+     * Tells whether two IDs guarded by the same lock denote the same entity, which they always do unless the table
+     * shares its locks between entities.
+     */
+    boolean isSameEntity(T first, T second);
+
+    /**
+     * Number of locks currently allocated by the table.
+     */
+    int size();
+}
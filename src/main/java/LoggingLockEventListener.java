@@ -0,0 +1,58 @@
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Routes lock events to a {@link java.util.logging.Logger}. Acquire and release events are logged at
+ * {@link Level#FINEST}, waits at {@link Level#FINE}, timeouts, prevented deadlocks and escalations at {@link Level#INFO}.
+ * Messages are only built when the level is enabled.
+ */
+public class LoggingLockEventListener<T> implements LockEventListener<T> {
+
+    private final Logger logger;
+
+    public LoggingLockEventListener() {
+        this(Logger.getLogger(EntityLocker.class.getName()));
+    }
+
+    public LoggingLockEventListener(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void onWaitStarted(T entityId) {
+        log(Level.FINE, "waitStarted", entityId);
+    }
+
+    @Override
+    public void onAcquired(T entityId, boolean waited) {
+        log(Level.FINEST, waited ? "acquiredAfterWait" : "acquired", entityId);
+    }
+
+    @Override
+    public void onReleased(T entityId) {
+        log(Level.FINEST, "released", entityId);
+    }
+
+    @Override
+    public void onTimedOut(T entityId) {
+        log(Level.INFO, "timedOut", entityId);
+    }
+
+    @Override
+    public void onDeadlockPrevented(T entityId) {
+        log(Level.INFO, "deadlockPrevented", entityId);
+    }
+
+    @Override
+    public void onLockEscalated(int numberOfLocks) {
+        if (logger.isLoggable(Level.INFO)) {
+            logger.log(Level.INFO, "lockEscalated: threadId=" + Thread.currentThread().getId() + ", numberOfLocks=" + numberOfLocks);
+        }
+    }
+
+    private void log(Level level, String event, T entityId) {
+        if (logger.isLoggable(level)) {
+            logger.log(level, event + ": threadId=" + Thread.currentThread().getId() + ", entityId=" + entityId);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EntityLocker} for {@code long} entity IDs, such as numeric primary keys, which never boxes them. Locks live in
+ * a {@link LongLockTable} and the wait-for graph is kept on owner tokens anyway, so taking a free lock, reentrant
+ * acquisitions included, allocates nothing at all. Only a thread that has to wait allocates, for its place in the queue
+ * and its edge of the wait-for graph.
+ * <p>
+ * Protected code is exclusive per entity, reentrant, optionally bounded by a timeout and checked for deadlocks exactly
+ * like in {@link EntityLocker}, and {@link #globalLockAndExecute} excludes all protected code of this locker.
+ * Lock events, read locks, lock escalation and asynchronous locking are left to {@link EntityLocker}.
+ */
+public class LongEntityLocker {
+
+    final LongLockTable lockTable = new LongLockTable();
+    final DeadlockDetector deadlockDetector = new DeadlockDetector();
+    final GlobalLock globalLock = new GlobalLock();
+
+    public void lockAndExecute(long entityId, Runnable protectedCode) throws InterruptedException, EntityLocker.DeadlockPreventedException {
+        tryLockAndExecute(entityId, protectedCode, 0);
+    }
+
+    /**
+     * @param timeoutInMilliseconds how long to wait for the lock, 0 means no limit
+     * @return false if the lock could not be taken within the timeout
+     */
+    public boolean tryLockAndExecute(long entityId, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, EntityLocker.DeadlockPreventedException {
+
+        GlobalLock.ThreadState threadState = globalLock.enterShared(timeoutInMilliseconds);
+        if (threadState == null) {
+            return false;
+        }
+
+        try {
+            if (globalLock.isHeldByCurrentThread()) {
+                protectedCode.run();
+                return true;
+            }
+            return lockAndExecuteEntity(threadState, entityId, protectedCode, timeoutInMilliseconds);
+        } finally {
+            globalLock.exitShared(threadState);
+        }
+    }
+
+    private boolean lockAndExecuteEntity(GlobalLock.ThreadState threadState, long entityId, Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, EntityLocker.DeadlockPreventedException {
+
+        EntityLock lock = lockTable.acquire(entityId);
+        boolean locked = false;
+
+        try {
+            if (!lock.tryLockImmediately(threadState.owner, false)
+                    && !EntityLocker.acquireContendedLock(deadlockDetector, LockEventListener.noOp(), threadState.owner, null, lock, false, 0,
+                    TimeUnit.MILLISECONDS.toNanos(timeoutInMilliseconds),
+                    threadState.depth == 1 ? EntityLocker.WaitOrder.NO_LOCKS_HELD : EntityLocker.WaitOrder.UNORDERED,
+                    threadState.heldLocks())) {
+                return false;
+            }
+            locked = true;
+
+            // Held entity IDs are only needed to release escalated locks, which this locker never escalates
+            threadState.pushHeldLock(null, lock, false);
+            protectedCode.run();
+        } finally {
+            if (locked) {
+                threadState.popHeldLock();
+                lock.unlock(threadState.owner, false);
+            }
+            lockTable.release(entityId);
+        }
+
+        return true;
+    }
+
+    /**
+     * Executes protected code which must not run concurrently with any other protected code of this locker,
+     * see {@link EntityLocker#globalLockAndExecute}.
+     *
+     * @param timeoutInMilliseconds how long to wait for the global lock, 0 means no limit
+     * @return false if the global lock could not be taken within the timeout
+     */
+    public boolean globalLockAndExecute(Runnable protectedCode, long timeoutInMilliseconds) throws InterruptedException, EntityLocker.DeadlockPreventedException {
+        return globalLock.executeExclusively(protectedCode, timeoutInMilliseconds);
+    }
+}
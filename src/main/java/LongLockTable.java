@@ -0,0 +1,183 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One lock per {@code long} entity ID, like {@link EvictingLockTable}, but keyed by the primitive itself. The table is
+ * split into segments, each an open-addressing hash table with linear probing guarded by a lock of its own, so no ID
+ * is ever boxed and no map entry is ever allocated.
+ * <p>
+ * Users are counted per slot. The slot of an ID is freed when its last user leaves and its lock is kept in a small
+ * per-segment pool for the next ID, so once the segments have grown to the number of IDs in use at a time, taking and
+ * releasing locks allocates nothing.
+ */
+class LongLockTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // Locks kept for reuse per segment, more are left to the garbage collector
+    private static final int MAX_POOLED_LOCKS = 8;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    LongLockTable() {
+        int numberOfSegments = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+        segments = new Segment[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            segments[i] = new Segment();
+        }
+        segmentShift = Integer.SIZE - Integer.numberOfTrailingZeros(numberOfSegments);
+    }
+
+    /**
+     * Returns the lock of the entity, taking it from the pool or creating it if needed, and counts the caller as its user.
+     */
+    EntityLock acquire(long entityId) {
+        int hash = hash(entityId);
+        return segmentOf(hash).acquire(entityId, hash);
+    }
+
+    void release(long entityId) {
+        int hash = hash(entityId);
+        segmentOf(hash).release(entityId, hash);
+    }
+
+    /**
+     * Number of entity IDs which currently have a lock.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentOf(int hash) {
+        // High bits pick the segment, low bits the slot within it
+        return segments[hash >>> segmentShift];
+    }
+
+    private static int hash(long entityId) {
+        // Sequential primary keys must not end up in neighbouring slots, or the probe sequences run into each other
+        long hash = entityId * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final EntityLock[] pool = new EntityLock[MAX_POOLED_LOCKS];
+        private int pooled;
+
+        // A slot is used if it has a lock, its key is meaningless otherwise
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private EntityLock[] locks = new EntityLock[INITIAL_CAPACITY];
+        private int[] users = new int[INITIAL_CAPACITY];
+        private int size;
+
+        EntityLock acquire(long entityId, int hash) {
+            lock.lock();
+            try {
+                int slot = slotOf(entityId, hash);
+                if (locks[slot] == null) {
+                    if ((size + 1) * 2 > locks.length) {
+                        grow();
+                        slot = slotOf(entityId, hash);
+                    }
+                    keys[slot] = entityId;
+                    locks[slot] = pooled > 0 ? takePooled() : new EntityLock(true);
+                    size++;
+                }
+                users[slot]++;
+                return locks[slot];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long entityId, int hash) {
+            lock.lock();
+            try {
+                int slot = slotOf(entityId, hash);
+                if (--users[slot] > 0) {
+                    return;
+                }
+                // Nobody holds or waits for the lock any more, so it is free and its queue is empty
+                if (pooled < MAX_POOLED_LOCKS) {
+                    pool[pooled++] = locks[slot];
+                }
+                removeSlot(slot);
+                size--;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Slot holding the ID, or the free slot where it belongs.
+         */
+        private int slotOf(long entityId, int hash) {
+            int mask = locks.length - 1;
+            int slot = hash & mask;
+            while (locks[slot] != null && keys[slot] != entityId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private EntityLock takePooled() {
+            EntityLock pooledLock = pool[--pooled];
+            pool[pooled] = null;
+            return pooledLock;
+        }
+
+        /**
+         * Frees a slot by shifting the following entries of its probe sequence back, so lookups need no tombstones.
+         */
+        private void removeSlot(int slot) {
+            int mask = locks.length - 1;
+            int next = slot;
+            for (;;) {
+                next = (next + 1) & mask;
+                if (locks[next] == null) {
+                    break;
+                }
+                int home = hash(keys[next]) & mask;
+                // The entry may move back unless its home slot lies cyclically after the freed slot
+                boolean movable = slot <= next ? home <= slot || home > next : home <= slot && home > next;
+                if (movable) {
+                    keys[slot] = keys[next];
+                    locks[slot] = locks[next];
+                    users[slot] = users[next];
+                    slot = next;
+                }
+            }
+            locks[slot] = null;
+            users[slot] = 0;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            EntityLock[] oldLocks = locks;
+            int[] oldUsers = users;
+            keys = new long[oldKeys.length * 2];
+            locks = new EntityLock[oldLocks.length * 2];
+            users = new int[oldUsers.length * 2];
+            for (int i = 0; i < oldLocks.length; i++) {
+                if (oldLocks[i] != null) {
+                    int slot = slotOf(oldKeys[i], hash(oldKeys[i]));
+                    keys[slot] = oldKeys[i];
+                    locks[slot] = oldLocks[i];
+                    users[slot] = oldUsers[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the last {@code capacity} lock events in memory for post-mortem inspection.
+ * Recording is lock-free: a thread claims a slot with a single atomic increment and overwrites the oldest event.
+ */
+public class RingBufferLockEventListener<T> implements LockEventListener<T> {
+
+    public enum EventType {
+        WAIT_STARTED, ACQUIRED, ACQUIRED_AFTER_WAIT, RELEASED, TIMED_OUT, DEADLOCK_PREVENTED, LOCK_ESCALATED
+    }
+
+    public static final class Event<T> {
+        public final EventType type;
+        public final T entityId;
+        public final long threadId;
+        public final long timestampNanos;
+
+        Event(EventType type, T entityId, long threadId, long timestampNanos) {
+            this.type = type;
+            this.entityId = entityId;
+            this.threadId = threadId;
+            this.timestampNanos = timestampNanos;
+        }
+
+        @Override
+        public String toString() {
+            return type + ": threadId=" + threadId + ", entityId=" + entityId + ", timestampNanos=" + timestampNanos;
+        }
+    }
+
+    private final AtomicReferenceArray<Event<T>> events;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public RingBufferLockEventListener(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.events = new AtomicReferenceArray<>(capacity);
+    }
+
+    @Override
+    public void onWaitStarted(T entityId) {
+        record(EventType.WAIT_STARTED, entityId);
+    }
+
+    @Override
+    public void onAcquired(T entityId, boolean waited) {
+        record(waited ? EventType.ACQUIRED_AFTER_WAIT : EventType.ACQUIRED, entityId);
+    }
+
+    @Override
+    public void onReleased(T entityId) {
+        record(EventType.RELEASED, entityId);
+    }
+
+    @Override
+    public void onTimedOut(T entityId) {
+        record(EventType.TIMED_OUT, entityId);
+    }
+
+    @Override
+    public void onDeadlockPrevented(T entityId) {
+        record(EventType.DEADLOCK_PREVENTED, entityId);
+    }
+
+    /**
+     * Recorded without an entity ID, since the escalation concerns all entities held by the thread.
+     */
+    @Override
+    public void onLockEscalated(int numberOfLocks) {
+        record(EventType.LOCK_ESCALATED, null);
+    }
+
+    /**
+     * Returns the buffered events, oldest first. Events recorded concurrently with the call may be missing.
+     */
+    public List<Event<T>> snapshot() {
+        long end = sequence.get();
+        long start = Math.max(0, end - events.length());
+        List<Event<T>> result = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            Event<T> event = events.get((int) (i % events.length()));
+            if (event != null) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    private void record(EventType type, T entityId) {
+        Event<T> event = new Event<>(type, entityId, Thread.currentThread().getId(), System.nanoTime());
+        events.set((int) (sequence.getAndIncrement() % events.length()), event);
+    }
+}
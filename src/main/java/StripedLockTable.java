@@ -0,0 +1,72 @@
+/**
+ * Fixed pool of locks shared by all entity IDs: an ID is guarded by the stripe its hash falls onto.
+ * Memory stays flat no matter how many IDs are used, at the price of false contention between IDs sharing a stripe.
+ * <p>
+ * {@link DeadlockDetector} sees stripes rather than IDs. Locking two IDs of the same stripe is plain reentrancy,
+ * so colliding IDs never look like a wait-for cycle. Writing an ID while reading another one of the same stripe
+ * upgrades the stripe, see {@link EntityLocker.StripeCollisionException}.
+ */
+class StripedLockTable<T> implements LockTable<T> {
+
+    private final EntityLock[] stripes;
+    private final int mask;
+    private final Equivalence<? super T> equivalence;
+
+    StripedLockTable(int numberOfStripes) {
+        this(numberOfStripes, true, false, null);
+    }
+
+    /**
+     * @param spinning    whether threads waiting for a stripe spin before they park
+     * @param equivalence hashes the IDs onto stripes, null for {@code hashCode}
+     */
+    StripedLockTable(int numberOfStripes, boolean fair, boolean spinning, Equivalence<? super T> equivalence) {
+        if (numberOfStripes <= 0) {
+            throw new IllegalArgumentException("numberOfStripes must be positive: " + numberOfStripes);
+        }
+        int size = Integer.highestOneBit(numberOfStripes);
+        if (size < numberOfStripes) {
+            size <<= 1;
+        }
+        stripes = new EntityLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new PaddedEntityLock(fair, spinning);
+        }
+        mask = size - 1;
+        this.equivalence = equivalence;
+    }
+
+    @Override
+    public EntityLock acquire(T entityId) {
+        int hash = equivalence == null ? entityId.hashCode() : equivalence.hash(entityId);
+        // Spread the high bits down, the same way HashMap does, so IDs differing only in high bits use different stripes
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    @Override
+    public void release(T entityId, EntityLock lock) {
+    }
+
+    @Override
+    public boolean isSameEntity(T first, T second) {
+        return equivalence == null ? first.equals(second) : equivalence.equivalent(first, second);
+    }
+
+    @Override
+    public int size() {
+        return stripes.length;
+    }
+
+    /**
+     * Stripes are allocated one after another and are all hot, so each one is padded
+     * to keep its fields on a cache line of its own.
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedEntityLock extends EntityLock {
+        private long p1, p2, p3, p4, p5, p6, p7, p8;
+
+        PaddedEntityLock(boolean fair, boolean spinning) {
+            super(fair, spinning);
+        }
+    }
+}
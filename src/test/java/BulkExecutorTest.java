@@ -0,0 +1,222 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class BulkExecutorTest {
+
+    @Test
+    public void testTasksOfEntityRunInSubmissionOrder() throws InterruptedException, ExecutionException {
+
+        final int NUMBER_OF_ENTITIES = 16;
+        final int NUMBER_OF_RECORDS = 100_000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final BulkExecutor<Integer> bulkExecutor = new BulkExecutor<>(entityLocker);
+        final List<List<Integer>> seenRecords = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_ENTITIES; i++)
+            seenRecords.add(new ArrayList<>());
+
+        bulkExecutor.executeAll(IntStream.range(0, NUMBER_OF_RECORDS).boxed(), record -> record % NUMBER_OF_ENTITIES,
+                record -> seenRecords.get(record % NUMBER_OF_ENTITIES).add(record));
+
+        for (int i = 0; i < NUMBER_OF_ENTITIES; i++) {
+            List<Integer> records = seenRecords.get(i);
+            Assertions.assertEquals(NUMBER_OF_RECORDS / NUMBER_OF_ENTITIES, records.size());
+            for (int j = 0; j < records.size(); j++)
+                Assertions.assertEquals(i + j * NUMBER_OF_ENTITIES, (int) records.get(j));
+        }
+        Assertions.assertEquals(0, bulkExecutor.groups.size());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testGroupsShareAcquisitions() throws InterruptedException, ExecutionException {
+
+        final int NUMBER_OF_RECORDS = 10_000;
+        final LockMetrics<Integer> metrics = new LockMetrics<>();
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(metrics);
+        final BulkExecutor<Integer> bulkExecutor = new BulkExecutor<>(entityLocker, ForkJoinPool.commonPool(), NUMBER_OF_RECORDS, NUMBER_OF_RECORDS);
+        final int[] counter = new int[1];
+
+        // Keeps the lock, so that all records queue up in one group behind it
+        LockHandle handle = entityLocker.acquire(1, 0);
+        for (int i = 0; i < NUMBER_OF_RECORDS; i++)
+            bulkExecutor.submit(1, () -> counter[0]++);
+        handle.close();
+        bulkExecutor.awaitCompletion();
+
+        Assertions.assertEquals(NUMBER_OF_RECORDS, counter[0]);
+        Assertions.assertEquals(2, metrics.snapshot().acquisitions);
+
+    }
+
+    @Test
+    public void testTasksExcludeOtherLockers() throws InterruptedException, ExecutionException {
+
+        final int OPERATIONS = 20_000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final BulkExecutor<Integer> bulkExecutor = new BulkExecutor<>(entityLocker, ForkJoinPool.commonPool(), 100, 8);
+        final int[] counter = new int[1];
+
+        Thread otherThread = new Thread(() -> {
+            try {
+                for (int i = 0; i < OPERATIONS; i++)
+                    entityLocker.lockAndExecute(1, () -> counter[0]++);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        otherThread.start();
+        for (int i = 0; i < OPERATIONS; i++)
+            bulkExecutor.submit(1, () -> counter[0]++);
+        bulkExecutor.awaitCompletion();
+        otherThread.join();
+
+        Assertions.assertEquals(2 * OPERATIONS, counter[0]);
+
+    }
+
+    @Test
+    public void testSubmitWaitsForRoom() throws InterruptedException, ExecutionException {
+
+        final int MAX_IN_FLIGHT = 10;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final BulkExecutor<Integer> bulkExecutor = new BulkExecutor<>(entityLocker, ForkJoinPool.commonPool(), MAX_IN_FLIGHT, 4);
+        final AtomicInteger finished = new AtomicInteger();
+        int maxSeenInFlight = 0;
+
+        for (int i = 0; i < 10_000; i++) {
+            bulkExecutor.submit(i % 3, finished::incrementAndGet);
+            maxSeenInFlight = Math.max(maxSeenInFlight, i + 1 - finished.get());
+        }
+        bulkExecutor.awaitCompletion();
+
+        Assertions.assertTrue(maxSeenInFlight <= MAX_IN_FLIGHT);
+        Assertions.assertEquals(10_000, finished.get());
+
+    }
+
+    @Test
+    public void testFailureIsReportedAndOtherTasksRun() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final BulkExecutor<Integer> bulkExecutor = new BulkExecutor<>(entityLocker);
+        final AtomicInteger finished = new AtomicInteger();
+        final IllegalStateException failure = new IllegalStateException();
+
+        for (int i = 0; i < 100; i++) {
+            int record = i;
+            bulkExecutor.submit(i % 2, () -> {
+                if (record == 42) {
+                    throw failure;
+                }
+                finished.incrementAndGet();
+            });
+        }
+
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, bulkExecutor::awaitCompletion);
+        Assertions.assertSame(failure, e.getCause());
+        Assertions.assertEquals(99, finished.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testTaskLockingItsOwnEntityFails() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final BulkExecutor<Integer> bulkExecutor = new BulkExecutor<>(entityLocker);
+        final AtomicInteger finished = new AtomicInteger();
+
+        bulkExecutor.submit(1, () -> {
+            try {
+                entityLocker.lockAndExecute(1, finished::incrementAndGet);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        bulkExecutor.submit(1, () -> {
+            try {
+                entityLocker.lockAllAndExecute(List.of(1, 2), finished::incrementAndGet, 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // Other entities are locked as usual
+        bulkExecutor.submit(1, () -> {
+            try {
+                entityLocker.lockAndExecute(2, finished::incrementAndGet);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        ExecutionException e = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> Assertions.assertThrows(ExecutionException.class, bulkExecutor::awaitCompletion));
+        Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+        Assertions.assertEquals(1, e.getCause().getSuppressed().length);
+        Assertions.assertEquals(1, finished.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testTaskClosingCycleWithThreadIsRefused() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final BulkExecutor<Integer> bulkExecutor = new BulkExecutor<>(entityLocker);
+        final CountDownLatch otherLocked = new CountDownLatch(1);
+        final CountDownLatch taskStarted = new CountDownLatch(1);
+        final AtomicBoolean otherFinished = new AtomicBoolean();
+
+        // Holds entity 2 and waits for entity 1, held by the group of the task
+        Thread otherThread = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(2, () -> {
+                    otherLocked.countDown();
+                    try {
+                        taskStarted.await();
+                        entityLocker.lockAndExecute(1, () -> otherFinished.set(true));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        otherThread.start();
+        otherLocked.await();
+
+        bulkExecutor.submit(1, () -> {
+            taskStarted.countDown();
+            EntityLock lock = ((EvictingLockTable<Integer>) entityLocker.lockTable).locks.get(1);
+            while (!lock.hasQueuedThreads())
+                Thread.yield();
+            try {
+                entityLocker.lockAndExecute(2, () -> {
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        ExecutionException e = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> Assertions.assertThrows(ExecutionException.class, bulkExecutor::awaitCompletion));
+        Assertions.assertTrue(e.getCause() instanceof EntityLocker.DeadlockPreventedException);
+        otherThread.join();
+        Assertions.assertTrue(otherFinished.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class DeadlockDetectorTest {
+
+    @Test
+    public void testChainWalkDecidesLikeFullGraphWalkOnRandomGraphs() {
+
+        final Random random = new Random(42);
+        final DeadlockDetector deadlockDetector = new DeadlockDetector();
+        int refused = 0;
+
+        for (int round = 0; round < 100_000; round++) {
+            LockOwner[] owners = new LockOwner[2 + random.nextInt(7)];
+            for (int i = 0; i < owners.length; i++) {
+                owners[i] = new LockOwner();
+            }
+            EntityLock[] locks = new EntityLock[1 + random.nextInt(8)];
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = randomlyHeldLock(random, owners);
+            }
+            LockOwner currentOwner = owners[0];
+            for (int i = 1; i < owners.length; i++) {
+                if (random.nextInt(10) < 7) {
+                    owners[i].wait = new LockOwner.Wait(locks[random.nextInt(locks.length)], random.nextBoolean());
+                }
+            }
+            EntityLock requestedLock = locks[random.nextInt(locks.length)];
+            boolean shared = random.nextBoolean();
+
+            boolean safe = deadlockDetector.isDeadlockSafe(currentOwner, requestedLock, shared);
+            currentOwner.wait = new LockOwner.Wait(requestedLock, shared);
+
+            Assertions.assertEquals(deadlockDetector.walkWaitForGraph(currentOwner), safe, "round " + round);
+            if (!safe) {
+                refused++;
+            }
+        }
+
+        Assertions.assertTrue(refused > 1000, "only " + refused + " waits refused");
+        // Both walks have to be exercised for the comparison to mean anything
+        long fullWalks = deadlockDetector.fullWalks.sum();
+        Assertions.assertTrue(fullWalks > 1000, "only " + fullWalks + " full walks");
+        Assertions.assertTrue(fullWalks < 90_000, "only " + (100_000 - fullWalks) + " chain walks");
+
+    }
+
+    /**
+     * Lock which is free, held exclusively, held by readers or downgraded by its exclusive owner, and which may
+     * have an asynchronous writer queued.
+     */
+    private static EntityLock randomlyHeldLock(Random random, LockOwner[] owners) {
+        EntityLock lock = new EntityLock(false);
+        switch (random.nextInt(4)) {
+            case 1:
+                lock.tryLockImmediately(owners[random.nextInt(owners.length)], false);
+                break;
+            case 2:
+                for (int i = random.nextInt(3); i >= 0; i--) {
+                    lock.tryLockImmediately(owners[random.nextInt(owners.length)], true);
+                }
+                break;
+            case 3:
+                LockOwner owner = owners[random.nextInt(owners.length)];
+                lock.tryLockImmediately(owner, false);
+                lock.tryLockImmediately(owner, true);
+                break;
+            default:
+                return lock;
+        }
+        if (random.nextBoolean()) {
+            lock.lockAsync(new LockOwner(), false, Runnable::run);
+        }
+        return lock;
+    }
+}
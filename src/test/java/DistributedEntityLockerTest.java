@@ -0,0 +1,268 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DistributedEntityLockerTest {
+
+    @Test
+    public void testNodesExcludeEachOther() throws InterruptedException {
+
+        final int NUMBER_OF_NODES = 3;
+        final int THREADS_PER_NODE = 4;
+        final int OPERATIONS_PER_THREAD = 500;
+        final InMemoryLeaseCoordinator<Integer> coordinator = new InMemoryLeaseCoordinator<>();
+        final int[] counter = new int[1];
+
+        List<DistributedEntityLocker<Integer>> nodes = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_NODES; i++) {
+            // No lingering, so that the lease moves between nodes all the time
+            DistributedEntityLocker<Integer> node = new DistributedEntityLocker<>(coordinator, "node-" + i, 1000, 0);
+            nodes.add(node);
+            for (int j = 0; j < THREADS_PER_NODE; j++) {
+                threads.add(new Thread(() -> {
+                    try {
+                        for (int k = 0; k < OPERATIONS_PER_THREAD; k++) {
+                            node.lockAndExecute(1, fencingToken -> counter[0]++);
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }));
+            }
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        for (DistributedEntityLocker<Integer> node : nodes)
+            node.close();
+
+        Assertions.assertEquals(NUMBER_OF_NODES * THREADS_PER_NODE * OPERATIONS_PER_THREAD, counter[0]);
+
+    }
+
+    @Test
+    public void testCachedLeaseServesReentrantAndRepeatedLocks() throws InterruptedException {
+
+        final InMemoryLeaseCoordinator<Integer> coordinator = new InMemoryLeaseCoordinator<>();
+        final AtomicLong nestedToken = new AtomicLong();
+
+        try (DistributedEntityLocker<Integer> node = new DistributedEntityLocker<>(coordinator, "node", 1000, 10_000)) {
+            for (int i = 0; i < 1000; i++) {
+                node.lockAndExecute(1, fencingToken -> {
+                    try {
+                        node.lockAndExecute(1, nestedToken::set);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    Assertions.assertEquals(fencingToken, nestedToken.get());
+                });
+            }
+            Assertions.assertEquals(1, coordinator.getMessageCount());
+        }
+
+    }
+
+    @Test
+    public void testFencingTokenGrowsWhenLeaseMovesToAnotherNode() throws InterruptedException {
+
+        final InMemoryLeaseCoordinator<Integer> coordinator = new InMemoryLeaseCoordinator<>();
+        final AtomicLong firstToken = new AtomicLong();
+        final AtomicLong secondToken = new AtomicLong();
+
+        try (DistributedEntityLocker<Integer> firstNode = new DistributedEntityLocker<>(coordinator, "first", 1000, 0);
+             DistributedEntityLocker<Integer> secondNode = new DistributedEntityLocker<>(coordinator, "second", 1000, 0)) {
+            firstNode.lockAndExecute(1, firstToken::set);
+            secondNode.lockAndExecute(1, secondToken::set);
+        }
+
+        Assertions.assertTrue(secondToken.get() > firstToken.get());
+
+    }
+
+    @Test
+    public void testLeaseHeldByAnotherNodeTimesOut() throws InterruptedException {
+
+        final InMemoryLeaseCoordinator<Integer> coordinator = new InMemoryLeaseCoordinator<>();
+        final AtomicBoolean locked = new AtomicBoolean(true);
+
+        try (DistributedEntityLocker<Integer> firstNode = new DistributedEntityLocker<>(coordinator, "first", 1000, 0);
+             DistributedEntityLocker<Integer> secondNode = new DistributedEntityLocker<>(coordinator, "second", 1000, 0)) {
+            firstNode.lockAndExecute(1, fencingToken -> {
+                try {
+                    locked.set(secondNode.tryLockAndExecute(1, otherToken -> {
+                    }, 50));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Assertions.assertFalse(locked.get());
+            Assertions.assertTrue(secondNode.tryLockAndExecute(1, fencingToken -> {
+            }, 1000));
+        }
+
+    }
+
+    @Test
+    public void testIdleLeasesAreReleasedAndBusyOnesRenewed() throws InterruptedException {
+
+        final InMemoryLeaseCoordinator<Integer> coordinator = new InMemoryLeaseCoordinator<>();
+        final AtomicBoolean locked = new AtomicBoolean();
+
+        try (DistributedEntityLocker<Integer> firstNode = new DistributedEntityLocker<>(coordinator, "first", 30, 50);
+             DistributedEntityLocker<Integer> secondNode = new DistributedEntityLocker<>(coordinator, "second", 30, 50)) {
+            firstNode.lockAndExecute(1, fencingToken -> {
+                try {
+                    // Held for several lease times, so only renewals keep the second node out
+                    locked.set(secondNode.tryLockAndExecute(1, otherToken -> {
+                    }, 150));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Assertions.assertFalse(locked.get());
+
+            Thread.sleep(200);
+            Assertions.assertEquals(0, firstNode.leases.size());
+            Assertions.assertTrue(secondNode.tryLockAndExecute(1, fencingToken -> {
+            }, 1000));
+        }
+
+    }
+
+    @Test
+    public void testLeaseRetakenWhileReleaseIsInFlightStaysExclusive() throws InterruptedException {
+
+        final long DURATION_NANOS = 2_000_000_000L;
+        // Releases arrive late, so a node may take the lease again before the release of its idle lease is through
+        final InMemoryLeaseCoordinator<Integer> coordinator = new InMemoryLeaseCoordinator<Integer>() {
+            @Override
+            public void release(String nodeId, Collection<Integer> entityIds) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.release(nodeId, entityIds);
+            }
+        };
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+
+        try (DistributedEntityLocker<Integer> firstNode = new DistributedEntityLocker<>(coordinator, "first", 300, 20);
+             DistributedEntityLocker<Integer> secondNode = new DistributedEntityLocker<>(coordinator, "second", 300, 20)) {
+            List<Thread> threads = new ArrayList<>();
+            for (DistributedEntityLocker<Integer> node : List.of(firstNode, secondNode)) {
+                threads.add(new Thread(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        while (System.nanoTime() - start < DURATION_NANOS) {
+                            node.tryLockAndExecute(1, fencingToken -> {
+                                if (inside.incrementAndGet() > 1) {
+                                    overlapped.set(true);
+                                }
+                                try {
+                                    Thread.sleep(150);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                inside.decrementAndGet();
+                            }, 200);
+                            // Idle for about the linger time, so the renewer releases the lease now and then
+                            Thread.sleep(ThreadLocalRandom.current().nextInt(15, 40));
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }));
+            }
+
+            for (Thread t : threads)
+                t.start();
+
+            for (Thread t : threads)
+                t.join();
+        }
+
+        Assertions.assertFalse(overlapped.get());
+
+    }
+
+    @Test
+    public void testRenewerOutlivesFailingCoordinator() throws InterruptedException {
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        final InMemoryLeaseCoordinator<Integer> coordinator = new InMemoryLeaseCoordinator<Integer>() {
+            @Override
+            public void release(String nodeId, Collection<Integer> entityIds) {
+                if (failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("coordinator unreachable");
+                }
+                super.release(nodeId, entityIds);
+            }
+        };
+        final AtomicBoolean locked = new AtomicBoolean();
+
+        try (DistributedEntityLocker<Integer> firstNode = new DistributedEntityLocker<>(coordinator, "first", 30, 50);
+             DistributedEntityLocker<Integer> secondNode = new DistributedEntityLocker<>(coordinator, "second", 30, 50)) {
+            firstNode.lockAndExecute(1, fencingToken -> {
+            });
+            // The idle lease is released by the renewer, which fails
+            Thread.sleep(150);
+            Assertions.assertTrue(failed.get());
+
+            firstNode.lockAndExecute(2, fencingToken -> {
+                try {
+                    locked.set(secondNode.tryLockAndExecute(2, otherToken -> {
+                    }, 150));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Assertions.assertFalse(locked.get());
+
+            Thread.sleep(200);
+            Assertions.assertEquals(0, firstNode.leases.size());
+        }
+
+    }
+
+    @Test
+    public void testFailedLeaseRequestLeavesNoLeaseBehind() throws InterruptedException {
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        final InMemoryLeaseCoordinator<Integer> coordinator = new InMemoryLeaseCoordinator<Integer>() {
+            @Override
+            public long tryAcquire(String nodeId, Integer entityId, long leaseInMilliseconds) {
+                if (failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("coordinator unreachable");
+                }
+                return super.tryAcquire(nodeId, entityId, leaseInMilliseconds);
+            }
+        };
+        final AtomicLong seenToken = new AtomicLong();
+
+        try (DistributedEntityLocker<Integer> node = new DistributedEntityLocker<>(coordinator, "node", 1000, 0)) {
+            Assertions.assertThrows(IllegalStateException.class, () -> node.lockAndExecute(1, fencingToken -> {
+            }));
+            Assertions.assertEquals(0, node.leases.size());
+
+            node.lockAndExecute(1, seenToken::set);
+            Assertions.assertNotEquals(0, seenToken.get());
+            Assertions.assertEquals(0, node.leases.size());
+        }
+
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityLockerAsyncTest {
+
+    @Test
+    public void testWaitersAreCompletedInOrderOnRelease() throws Exception {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final List<Integer> order = new ArrayList<>();
+
+        CompletableFuture<LockHandle> first = entityLocker.lockAsync(1);
+        Assertions.assertTrue(first.isDone());
+
+        List<CompletableFuture<LockHandle>> waiters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final int position = i;
+            waiters.add(entityLocker.lockAsync(1).thenApply(handle -> {
+                synchronized (order) {
+                    order.add(position);
+                }
+                return handle;
+            }));
+        }
+        for (CompletableFuture<LockHandle> waiter : waiters) {
+            Assertions.assertFalse(waiter.isDone());
+        }
+
+        first.get().close();
+        for (CompletableFuture<LockHandle> waiter : waiters) {
+            // Each waiter gets the lock only when the previous one closes its handle
+            waiter.get(5, TimeUnit.SECONDS).close();
+        }
+
+        Assertions.assertEquals(List.of(0, 1, 2), order);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testProtectedStagesNeverOverlap() throws Exception {
+
+        final int NUMBER_OF_TASKS = 1000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final int[] counter = new int[1];
+
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_TASKS; i++) {
+            results.add(entityLocker.executeAsync(1, () -> {
+                if (running.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                // The stage completes on another thread, which then releases the lock
+                return CompletableFuture.supplyAsync(() -> {
+                    int value = ++counter[0];
+                    running.decrementAndGet();
+                    return value;
+                });
+            }));
+        }
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        Assertions.assertFalse(overlapped.get());
+        Assertions.assertEquals(NUMBER_OF_TASKS, counter[0]);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testTimedOutWaiterLeavesNothingBehind() throws Exception {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+
+        LockHandle handle = entityLocker.lockAsync(1).get();
+
+        CompletableFuture<LockHandle> timingOut = entityLocker.lockAsync(1, 50);
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> timingOut.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(exception.getCause() instanceof TimeoutException);
+
+        CompletableFuture<LockHandle> cancelled = entityLocker.lockAsync(1);
+        cancelled.cancel(false);
+
+        handle.close();
+
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+        Assertions.assertTrue(entityLocker.tryLockAndExecute(1, () -> {
+        }, 10));
+
+    }
+
+    @Test
+    public void testThreadsAndTasksExcludeEachOther() throws Exception {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final AtomicBoolean executed = new AtomicBoolean();
+
+        LockHandle handle = entityLocker.lockAsync(1).get();
+
+        Thread thread = new Thread(() -> {
+            try {
+                waiting.countDown();
+                entityLocker.lockAndExecute(1, () -> executed.set(true));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        waiting.await();
+        Thread.sleep(50);
+
+        Assertions.assertFalse(executed.get());
+        // Released by another thread than the one that took the lock
+        CompletableFuture.runAsync(handle::close).get();
+        thread.join();
+
+        Assertions.assertTrue(executed.get());
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        thread = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(1, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        locked.await();
+
+        CompletableFuture<LockHandle> waiter = entityLocker.lockAsync(1);
+        Thread.sleep(50);
+        Assertions.assertFalse(waiter.isDone());
+
+        release.countDown();
+        waiter.get(5, TimeUnit.SECONDS).close();
+        thread.join();
+
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testProtectedCodeLockingItsOwnEntityFails() throws Exception {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicBoolean executed = new AtomicBoolean();
+
+        CompletableFuture<Void> result = entityLocker.executeAsync(1, () -> {
+            try {
+                entityLocker.lockAndExecute(1, () -> executed.set(true));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+
+        ExecutionException failure = Assertions.assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(failure.getCause() instanceof IllegalStateException);
+        Assertions.assertFalse(executed.get());
+        // Other entities are locked as usual
+        entityLocker.executeAsync(1, () -> {
+            try {
+                entityLocker.lockAndExecute(2, () -> executed.set(true));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture(null);
+        }).get(10, TimeUnit.SECONDS);
+        Assertions.assertTrue(executed.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+}
@@ -0,0 +1,240 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityLockerBuilderTest {
+
+    @Test
+    public void testUnfairLockerKeepsExclusiveAccess() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int OPERATIONS_PER_THREAD = 25_600;
+        final EntityLocker<Integer> entityLocker = EntityLocker.<Integer>builder().fair(false).build();
+        final int[] counter = new int[1];
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        entityLocker.lockAndExecute(1, () -> counter[0]++);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertEquals(NUMBER_OF_THREADS * OPERATIONS_PER_THREAD, counter[0]);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testSpinningLockerKeepsExclusiveAccess() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int OPERATIONS_PER_THREAD = 25_600;
+        final EntityLocker<Integer> entityLocker = EntityLocker.<Integer>builder().spinning(true).build();
+        final int[] counter = new int[1];
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        entityLocker.tryLockAndExecute(1, () -> counter[0]++, 10_000);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertEquals(NUMBER_OF_THREADS * OPERATIONS_PER_THREAD, counter[0]);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testSpinningWaiterTimesOut() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = EntityLocker.<Integer>builder().spinning(true).build();
+        final AtomicBoolean locked = new AtomicBoolean(true);
+
+        entityLocker.lockAndExecute(1, () -> {
+            Thread otherThread = new Thread(() -> {
+                try {
+                    locked.set(entityLocker.tryLockAndExecute(1, () -> {
+                    }, 50));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            otherThread.start();
+            try {
+                otherThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Assertions.assertFalse(locked.get());
+
+    }
+
+    @Test
+    public void testArrayIdsWithEqualContentsShareLock() throws InterruptedException {
+
+        final EntityLocker<byte[]> entityLocker = EntityLocker.<byte[]>builder().equivalence(Equivalence.arrays()).build();
+        final AtomicBoolean locked = new AtomicBoolean(true);
+
+        entityLocker.lockAndExecute(new byte[]{1, 2, 3}, () -> {
+            Thread otherThread = new Thread(() -> {
+                try {
+                    locked.set(entityLocker.tryLockAndExecute(new byte[]{1, 2, 3}, () -> {
+                    }, 50));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            otherThread.start();
+            try {
+                otherThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Assertions.assertFalse(locked.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testDeadlockStrategyOffLeavesDeadlockToTimeouts() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = EntityLocker.<Integer>builder().deadlockStrategy(EntityLocker.DeadlockStrategy.OFF).build();
+        final CountDownLatch firstLocksTaken = new CountDownLatch(2);
+        final AtomicInteger timedOut = new AtomicInteger();
+        final AtomicBoolean deadlockPrevented = new AtomicBoolean();
+
+        Thread t1 = new Thread(() -> lockCrosswise(entityLocker, 1, 2, firstLocksTaken, timedOut, deadlockPrevented));
+        Thread t2 = new Thread(() -> lockCrosswise(entityLocker, 2, 1, firstLocksTaken, timedOut, deadlockPrevented));
+
+        t1.start();
+        t2.start();
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            t1.join();
+            t2.join();
+        });
+
+        Assertions.assertFalse(deadlockPrevented.get());
+        Assertions.assertTrue(timedOut.get() > 0);
+
+    }
+
+    @Test
+    public void testDetectStrategyAbortsDeadlock() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = EntityLocker.<Integer>builder()
+                .deadlockStrategy(EntityLocker.DeadlockStrategy.DETECT)
+                .deadlockSweeping(20, EntityLocker.DeadlockVictim.YOUNGEST)
+                .build();
+        final CountDownLatch firstLocksTaken = new CountDownLatch(2);
+        final AtomicInteger timedOut = new AtomicInteger();
+        final AtomicBoolean deadlockPrevented = new AtomicBoolean();
+
+        Thread t1 = new Thread(() -> lockCrosswise(entityLocker, 1, 2, firstLocksTaken, timedOut, deadlockPrevented));
+        Thread t2 = new Thread(() -> lockCrosswise(entityLocker, 2, 1, firstLocksTaken, timedOut, deadlockPrevented));
+
+        t1.start();
+        t2.start();
+        t1.join();
+        t2.join();
+
+        Assertions.assertTrue(deadlockPrevented.get());
+        Assertions.assertEquals(0, timedOut.get());
+
+    }
+
+    @Test
+    public void testStripesSelectStripedLockTable() {
+
+        Assertions.assertEquals(8, EntityLocker.<Integer>builder().stripes(5).build().lockTable.size());
+
+    }
+
+    private static void lockCrosswise(EntityLocker<Integer> entityLocker, int firstEntityId, int secondEntityId, CountDownLatch firstLocksTaken,
+                                      AtomicInteger timedOut, AtomicBoolean deadlockPrevented) {
+        try {
+            entityLocker.lockAndExecute(firstEntityId, () -> {
+                try {
+                    firstLocksTaken.countDown();
+                    firstLocksTaken.await();
+                    if (!entityLocker.tryLockAndExecute(secondEntityId, () -> {
+                    }, 1000)) {
+                        timedOut.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        } catch (EntityLocker.DeadlockPreventedException e) {
+            deadlockPrevented.set(true);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void testDetectingLockersShareOneSweeperThread() throws InterruptedException {
+
+        final int NUMBER_OF_LOCKERS = 50;
+        final int sweepsBefore = DeadlockSweeper.activeSweeps();
+
+        for (int i = 0; i < NUMBER_OF_LOCKERS; i++) {
+            EntityLocker<Integer> entityLocker = EntityLocker.<Integer>builder()
+                    .deadlockStrategy(EntityLocker.DeadlockStrategy.DETECT)
+                    .deadlockSweeping(10, EntityLocker.DeadlockVictim.YOUNGEST)
+                    .build();
+            entityLocker.lockAndExecute(i, () -> {
+            });
+        }
+
+        Assertions.assertTrue(sweeperThreads() <= 1);
+        for (int i = 0; i < 100 && DeadlockSweeper.activeSweeps() > sweepsBefore; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(DeadlockSweeper.activeSweeps() <= sweepsBefore);
+
+    }
+
+    private static long sweeperThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("entity-locker-deadlock-sweeper"))
+                .count();
+    }
+}
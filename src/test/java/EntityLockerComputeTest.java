@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class EntityLockerComputeTest {
+
+    @Test
+    public void testResultIsReturned() throws Exception {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+
+        Assertions.assertEquals("computed", entityLocker.lockAndCompute(1, () -> "computed"));
+        Assertions.assertEquals(Integer.valueOf(6), entityLocker.lockAndApply(1, 3, value -> value * 2));
+        Assertions.assertNull(entityLocker.lockAndCompute(1, () -> null));
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testCheckedExceptionIsNotWrapped() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final IOException failure = new IOException("failed");
+
+        IOException thrown = Assertions.assertThrows(IOException.class, () -> entityLocker.lockAndCompute(1, () -> {
+            throw failure;
+        }));
+
+        Assertions.assertSame(failure, thrown);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+        Assertions.assertTrue(entityLocker.tryLockAndExecute(1, () -> {
+        }, 10));
+
+    }
+
+    @Test
+    public void testReentrance() throws Exception {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+
+        int result = entityLocker.lockAndCompute(1, () ->
+                entityLocker.lockAndApply(1, entityLocker, locker -> {
+                    try {
+                        return locker.lockAndCompute(1, () -> 42);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }));
+
+        Assertions.assertEquals(42, result);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testConcurrentApplications() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int NUMBER_OF_ITERATIONS = 10000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final int[] counter = new int[1];
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < NUMBER_OF_ITERATIONS; j++) {
+                    try {
+                        // Non-capturing: the counter comes in as the argument
+                        entityLocker.lockAndApply(1, counter, values -> ++values[0]);
+                    } catch (InterruptedException e) {
+                        failed.set(true);
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertFalse(failed.get());
+        Assertions.assertEquals(NUMBER_OF_THREADS * NUMBER_OF_ITERATIONS, counter[0]);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+}
@@ -0,0 +1,220 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class EntityLockerDeadlineTest {
+
+    @Test
+    public void testNestedTimeoutIsCutShortByDeadline() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicBoolean nestedLocked = new AtomicBoolean(true);
+        final AtomicLong waitedNanos = new AtomicLong();
+
+        EntityLockerFixtures.holdingLock(entityLocker, 2, () -> {
+            long start = System.nanoTime();
+            try {
+                Assertions.assertTrue(entityLocker.tryLockAndExecuteUntil(1, () -> {
+                    try {
+                        nestedLocked.set(entityLocker.tryLockAndExecute(2, () -> {
+                        }, 10_000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, start + TimeUnit.MILLISECONDS.toNanos(100)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            waitedNanos.set(System.nanoTime() - start);
+        });
+
+        Assertions.assertFalse(nestedLocked.get());
+        Assertions.assertTrue(waitedNanos.get() < TimeUnit.SECONDS.toNanos(5));
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testUntimedNestedLockThrowsAtDeadline() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        EntityLockerFixtures.holdingLock(entityLocker, 2, () -> {
+            try {
+                entityLocker.tryLockAndExecuteUntil(1, () -> {
+                    try {
+                        entityLocker.lockAndExecute(2, () -> {
+                        });
+                    } catch (EntityLocker.DeadlineExceededException e) {
+                        failure.set(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Assertions.assertNotNull(failure.get());
+
+    }
+
+    @Test
+    public void testDeadlineScopeEndsWithItsLock() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // The deadline has passed, yet the free lock is still taken
+        Assertions.assertTrue(entityLocker.tryLockAndExecuteUntil(1, () -> {
+        }, System.nanoTime() - 1));
+
+        Thread otherThread = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(2, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        otherThread.start();
+        locked.await();
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+
+        // Past the deadline of the scope above, which must not bound this wait any more
+        Assertions.assertTrue(entityLocker.tryLockAndExecute(2, () -> {
+        }, 10_000));
+        otherThread.join();
+
+    }
+
+    @Test
+    public void testNestedScopeOnlyTightensDeadline() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicLong waitedNanos = new AtomicLong();
+        final AtomicBoolean nestedLocked = new AtomicBoolean(true);
+
+        EntityLockerFixtures.holdingLock(entityLocker, 3, () -> {
+            long start = System.nanoTime();
+            try {
+                entityLocker.tryLockAndExecuteUntil(1, () -> {
+                    try {
+                        entityLocker.tryLockAndExecuteUntil(2, () -> {
+                            try {
+                                nestedLocked.set(entityLocker.tryLockAndExecute(3, () -> {
+                                }, 0));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }, start + TimeUnit.SECONDS.toNanos(60));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, start + TimeUnit.MILLISECONDS.toNanos(100));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            waitedNanos.set(System.nanoTime() - start);
+        });
+
+        Assertions.assertFalse(nestedLocked.get());
+        Assertions.assertTrue(waitedNanos.get() < TimeUnit.SECONDS.toNanos(5));
+
+    }
+
+    @Test
+    public void testTimedOutWaiterLeavesQueue() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicBoolean locked = new AtomicBoolean(true);
+
+        EntityLockerFixtures.holdingLock(entityLocker, 1, () -> {
+            try {
+                locked.set(entityLocker.tryLockAndExecuteUntil(1, () -> {
+                }, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            EntityLock lock = EntityLockerFixtures.lockOf(entityLocker, 1);
+            Assertions.assertFalse(lock.hasQueuedThreads());
+        });
+
+        Assertions.assertFalse(locked.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testLongestTimeoutWaitsForGlobalLock() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicBoolean locked = new AtomicBoolean();
+        final List<Thread> threads = new ArrayList<>();
+
+        EntityLockerFixtures.holdingLock(entityLocker, 1, () -> {
+            // Waits for the holder, and makes every new protected code wait for the global lock in turn
+            threads.add(startThread(() -> entityLocker.globalLockAndExecute(() -> {
+            }, 0)));
+            sleep(50);
+            threads.add(startThread(() -> locked.set(entityLocker.tryLockAndExecute(2, () -> {
+            }, Long.MAX_VALUE))));
+            sleep(100);
+            Assertions.assertTrue(threads.get(1).isAlive());
+        });
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertTrue(locked.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    private interface Interruptible {
+        void run() throws InterruptedException;
+    }
+
+    private static Thread startThread(Interruptible code) {
+        Thread thread = new Thread(() -> {
+            try {
+                code.run();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void sleep(long milliseconds) {
+        try {
+            Thread.sleep(milliseconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -9,6 +9,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 public class EntityLockerDeadlockPreventionTest {
 
+    //Time each thread keeps its first entity before asking for the second one, so that the threads really overlap
+    private static final long FIRST_LOCK_HOLD_TIME_MS = 100;
+
     @Test
     public void testDeadlockPreventionWithTwoThreadsAndTwoEntities() {
 
@@ -154,6 +157,7 @@ public class EntityLockerDeadlockPreventionTest {
 
             try {
                 testSynchronizationLatch.countDown();
+                testSynchronizationLatch.await();
                 System.out.println("Executing entityLocker for entity " + entityId1);
                 entityLocker.lockAndExecute(entityId1, new DeadlockProneTask<>(entityId2, entityLocker, deadlockPrevented, singleThreadWorkTimeMs));
                 System.out.println("Finished execution of entityLocker for entity " + entityId1);
@@ -183,6 +187,7 @@ public class EntityLockerDeadlockPreventionTest {
 
             try {
 
+                Thread.sleep(FIRST_LOCK_HOLD_TIME_MS);
                 entityLocker.lockAndExecute(entityId, () -> {
                     try {
                         System.out.println("Starting inner task for entityId = " + entityId + "and threadId = " + Thread.currentThread().getId());
@@ -0,0 +1,208 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityLockerDeadlockSweepingTest {
+
+    private static final long SWEEP_INTERVAL_MS = 20;
+
+    @Test
+    public void testSweeperAbortsOneThreadOfDeadlock() {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        entityLocker.setDeadlockSweeping(SWEEP_INTERVAL_MS, EntityLocker.DeadlockVictim.YOUNGEST);
+        final CountDownLatch firstLocksTaken = new CountDownLatch(2);
+        final AtomicInteger deadlocksPrevented = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+
+        Thread t1 = new Thread(new CrossLockingTask(entityLocker, List.of(1), 2, firstLocksTaken, deadlocksPrevented, completed, null));
+        Thread t2 = new Thread(new CrossLockingTask(entityLocker, List.of(2), 1, firstLocksTaken, deadlocksPrevented, completed, null));
+
+        t1.start();
+        t2.start();
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            t1.join();
+            t2.join();
+        });
+
+        Assertions.assertEquals(1, deadlocksPrevented.get());
+        Assertions.assertEquals(1, completed.get());
+
+    }
+
+    @Test
+    public void testDroppedLockerStopsItsSweeps() throws InterruptedException {
+
+        final int sweepsBefore = DeadlockSweeper.activeSweeps();
+
+        WeakReference<EntityLocker<Integer>> droppedLocker = sweptLocker();
+        Assertions.assertEquals(sweepsBefore + 1, DeadlockSweeper.activeSweeps());
+
+        for (int i = 0; i < 100 && (droppedLocker.get() != null || DeadlockSweeper.activeSweeps() > sweepsBefore); i++) {
+            System.gc();
+            Thread.sleep(SWEEP_INTERVAL_MS);
+        }
+
+        Assertions.assertNull(droppedLocker.get());
+        Assertions.assertTrue(DeadlockSweeper.activeSweeps() <= sweepsBefore);
+
+    }
+
+    /**
+     * Creates a locker swept for deadlocks, lets it sweep a waiting thread once and drops it.
+     */
+    private static WeakReference<EntityLocker<Integer>> sweptLocker() throws InterruptedException {
+        EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        entityLocker.setDeadlockSweeping(SWEEP_INTERVAL_MS, EntityLocker.DeadlockVictim.YOUNGEST);
+        entityLocker.lockAndExecute(1, () -> {
+            Thread waiter = new Thread(() -> {
+                try {
+                    entityLocker.tryLockAndExecute(1, () -> {
+                    }, 2 * SWEEP_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiter.start();
+            try {
+                waiter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return new WeakReference<>(entityLocker);
+    }
+
+    @Test
+    public void testThreadHoldingFewestLocksIsTheVictim() {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        entityLocker.setDeadlockSweeping(SWEEP_INTERVAL_MS, EntityLocker.DeadlockVictim.FEWEST_LOCKS_HELD);
+        final CountDownLatch firstLocksTaken = new CountDownLatch(2);
+        final AtomicInteger deadlocksPrevented = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final List<String> victims = new CopyOnWriteArrayList<>();
+
+        Thread manyLocks = new Thread(new CrossLockingTask(entityLocker, List.of(1, 3, 4), 2, firstLocksTaken, deadlocksPrevented, completed, victims));
+        Thread fewLocks = new Thread(new CrossLockingTask(entityLocker, List.of(2), 1, firstLocksTaken, deadlocksPrevented, completed, victims));
+        manyLocks.setName("manyLocks");
+        fewLocks.setName("fewLocks");
+
+        manyLocks.start();
+        fewLocks.start();
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            manyLocks.join();
+            fewLocks.join();
+        });
+
+        Assertions.assertEquals(List.of("fewLocks"), victims);
+
+    }
+
+    @Test
+    public void testWaitsAreNotAbortedWithoutDeadlock() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        entityLocker.setDeadlockSweeping(SWEEP_INTERVAL_MS, EntityLocker.DeadlockVictim.YOUNGEST);
+        final CountDownLatch locked = new CountDownLatch(1);
+
+        Thread blockingThread = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(1, () -> {
+                    locked.countDown();
+                    sleep(10 * SWEEP_INTERVAL_MS);
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        blockingThread.start();
+        locked.await();
+
+        final AtomicInteger executed = new AtomicInteger();
+        entityLocker.lockAndExecute(2, () -> {
+            try {
+                entityLocker.lockAndExecute(1, executed::incrementAndGet);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        blockingThread.join();
+
+        Assertions.assertEquals(1, executed.get());
+
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Locks its own entities, waits until the other task locked its own as well, and then asks for the other task's
+     * first entity.
+     */
+    private static class CrossLockingTask implements Runnable {
+
+        private final EntityLocker<Integer> entityLocker;
+        private final List<Integer> ownEntityIds;
+        private final Integer otherEntityId;
+        private final CountDownLatch firstLocksTaken;
+        private final AtomicInteger deadlocksPrevented;
+        private final AtomicInteger completed;
+        private final List<String> victims;
+
+        CrossLockingTask(EntityLocker<Integer> entityLocker, List<Integer> ownEntityIds, Integer otherEntityId, CountDownLatch firstLocksTaken,
+                         AtomicInteger deadlocksPrevented, AtomicInteger completed, List<String> victims) {
+            this.entityLocker = entityLocker;
+            this.ownEntityIds = ownEntityIds;
+            this.otherEntityId = otherEntityId;
+            this.firstLocksTaken = firstLocksTaken;
+            this.deadlocksPrevented = deadlocksPrevented;
+            this.completed = completed;
+            this.victims = victims;
+        }
+
+        @Override
+        public void run() {
+            try {
+                lockOwnEntities(0);
+            } catch (EntityLocker.DeadlockPreventedException e) {
+                deadlocksPrevented.incrementAndGet();
+                if (victims != null) {
+                    victims.add(Thread.currentThread().getName());
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void lockOwnEntities(int index) throws InterruptedException {
+            if (index == ownEntityIds.size()) {
+                firstLocksTaken.countDown();
+                firstLocksTaken.await();
+                entityLocker.lockAndExecute(otherEntityId, completed::incrementAndGet);
+                return;
+            }
+            entityLocker.lockAndExecute(ownEntityIds.get(index), () -> {
+                try {
+                    lockOwnEntities(index + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+}
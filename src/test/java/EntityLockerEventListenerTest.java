@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+public class EntityLockerEventListenerTest {
+
+    @Test
+    public void testAcquireAndReleaseEventsAreReported() throws InterruptedException {
+
+        final int entityId = 1;
+        final RingBufferLockEventListener<Integer> listener = new RingBufferLockEventListener<>(16);
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(listener);
+
+        entityLocker.lockAndExecute(entityId, () -> {
+        });
+
+        Assertions.assertEquals(List.of(RingBufferLockEventListener.EventType.ACQUIRED, RingBufferLockEventListener.EventType.RELEASED), eventTypes(listener));
+
+    }
+
+    @Test
+    public void testWaitAndTimeoutEventsAreReported() throws InterruptedException {
+
+        final int entityId = 1;
+        final RingBufferLockEventListener<Integer> listener = new RingBufferLockEventListener<>(16);
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(listener);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread blockingThread = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(entityId, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+
+        blockingThread.start();
+        locked.await();
+
+        boolean success = entityLocker.tryLockAndExecute(entityId, () -> {
+        }, 50);
+
+        release.countDown();
+        blockingThread.join();
+
+        Assertions.assertFalse(success);
+        List<RingBufferLockEventListener.EventType> events = eventTypes(listener);
+        Assertions.assertTrue(events.contains(RingBufferLockEventListener.EventType.WAIT_STARTED));
+        Assertions.assertTrue(events.contains(RingBufferLockEventListener.EventType.TIMED_OUT));
+
+    }
+
+    @Test
+    public void testRingBufferKeepsOnlyLatestEvents() throws InterruptedException {
+
+        final RingBufferLockEventListener<Integer> listener = new RingBufferLockEventListener<>(4);
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(listener);
+
+        for (int i = 0; i < 10; i++) {
+            entityLocker.lockAndExecute(i, () -> {
+            });
+        }
+
+        List<RingBufferLockEventListener.Event<Integer>> events = listener.snapshot();
+        Assertions.assertEquals(4, events.size());
+        Assertions.assertEquals(Integer.valueOf(8), events.get(0).entityId);
+        Assertions.assertEquals(Integer.valueOf(9), events.get(3).entityId);
+
+    }
+
+    private static List<RingBufferLockEventListener.EventType> eventTypes(RingBufferLockEventListener<Integer> listener) {
+        return listener.snapshot().stream().map(e -> e.type).collect(Collectors.toList());
+    }
+}
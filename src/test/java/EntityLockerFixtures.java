@@ -0,0 +1,47 @@
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Setups shared by the entity locker tests.
+ */
+final class EntityLockerFixtures {
+
+    private EntityLockerFixtures() {
+    }
+
+    /**
+     * Runs the code in the current thread while another thread holds the lock of the entity.
+     */
+    static void holdingLock(EntityLocker<Integer> entityLocker, int entityId, Runnable code) throws InterruptedException {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(entityId, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            code.run();
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    /**
+     * Returns the lock of the entity in a locker with the default, evicting lock table, or null if it is evicted.
+     */
+    static EntityLock lockOf(EntityLocker<Integer> entityLocker, int entityId) {
+        return ((EvictingLockTable<Integer>) entityLocker.lockTable).locks.get(entityId);
+    }
+}
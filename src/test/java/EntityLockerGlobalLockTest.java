@@ -0,0 +1,173 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityLockerGlobalLockTest {
+
+    @Test
+    public void testGlobalLockExcludesProtectedCodeOnEntities() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicInteger threadsInProtectedCode = new AtomicInteger();
+        final AtomicBoolean overlapDetected = new AtomicBoolean();
+        final AtomicBoolean stop = new AtomicBoolean();
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final int entityId = i;
+            threads.add(new Thread(() -> {
+                try {
+                    while (!stop.get()) {
+                        entityLocker.lockAndExecute(entityId, () -> {
+                            threadsInProtectedCode.incrementAndGet();
+                            Thread.yield();
+                            threadsInProtectedCode.decrementAndGet();
+                        });
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertTrue(entityLocker.globalLockAndExecute(() -> {
+                if (threadsInProtectedCode.get() != 0) {
+                    overlapDetected.set(true);
+                }
+            }, 5000));
+        }
+
+        stop.set(true);
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertFalse(overlapDetected.get());
+
+    }
+
+    @Test
+    public void testProtectedCodeOnEntityTimesOutWhileGlobalLockIsHeld() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch globalLockTaken = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread globalThread = new Thread(() -> {
+            try {
+                entityLocker.globalLockAndExecute(() -> {
+                    globalLockTaken.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }, 0);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        globalThread.start();
+        globalLockTaken.await();
+
+        boolean success = entityLocker.tryLockAndExecute(1, () -> {
+        }, 100);
+
+        release.countDown();
+        globalThread.join();
+
+        Assertions.assertFalse(success);
+        Assertions.assertTrue(entityLocker.tryLockAndExecute(1, () -> {
+        }, 100));
+
+    }
+
+    @Test
+    public void testGlobalLockIsReentrantAndAllowsEntityLocks() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicInteger successCounter = new AtomicInteger();
+
+        entityLocker.globalLockAndExecute(() -> {
+            try {
+                entityLocker.lockAndExecute(1, () -> {
+                    try {
+                        entityLocker.globalLockAndExecute(successCounter::incrementAndGet, 100);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+                successCounter.incrementAndGet();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }, 100);
+
+        //Global lock taken from protected code on an entity is an upgrade
+        entityLocker.lockAndExecute(2, () -> {
+            try {
+                entityLocker.globalLockAndExecute(successCounter::incrementAndGet, 100);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        Assertions.assertEquals(3, successCounter.get());
+
+    }
+
+    @Test
+    public void testUpgradeIsRefusedWhenAnotherThreadWaitsForHeldEntity() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch entityLocked = new CountDownLatch(1);
+        final AtomicBoolean deadlockPrevented = new AtomicBoolean();
+
+        Thread waitingThread = new Thread(() -> {
+            try {
+                entityLocked.await();
+                entityLocker.lockAndExecute(2, () -> {
+                    try {
+                        entityLocker.lockAndExecute(1, () -> {
+                        });
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        waitingThread.start();
+
+        entityLocker.lockAndExecute(1, () -> {
+            entityLocked.countDown();
+            try {
+                Thread.sleep(200);
+                entityLocker.globalLockAndExecute(() -> {
+                }, 0);
+            } catch (EntityLocker.DeadlockPreventedException e) {
+                deadlockPrevented.set(true);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        waitingThread.join();
+
+        Assertions.assertTrue(deadlockPrevented.get());
+
+    }
+}
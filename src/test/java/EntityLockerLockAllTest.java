@@ -0,0 +1,180 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityLockerLockAllTest {
+
+    @Test
+    public void testTransfersBetweenAccountsNeverDeadlock() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int TRANSFERS_PER_THREAD = 10_000;
+        final int NUMBER_OF_ACCOUNTS = 10;
+        final int INITIAL_BALANCE = 1000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final int[] balances = new int[NUMBER_OF_ACCOUNTS];
+        final AtomicBoolean failed = new AtomicBoolean();
+        Arrays.fill(balances, INITIAL_BALANCE);
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final Random random = new Random(i);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < TRANSFERS_PER_THREAD; j++) {
+                        final int from = random.nextInt(NUMBER_OF_ACCOUNTS);
+                        final int to = random.nextInt(NUMBER_OF_ACCOUNTS);
+                        entityLocker.lockAllAndExecute(Arrays.asList(from, to), () -> {
+                            balances[from]--;
+                            balances[to]++;
+                        }, 0);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failed.set(true);
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertFalse(failed.get());
+        Assertions.assertEquals(NUMBER_OF_ACCOUNTS * INITIAL_BALANCE, Arrays.stream(balances).sum());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testPartiallyAcquiredLocksAreReleasedOnTimeout() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread blockingThread = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(3, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        blockingThread.start();
+        locked.await();
+
+        boolean success = entityLocker.lockAllAndExecute(Arrays.asList(1, 2, 3), () -> {
+        }, 100);
+
+        Assertions.assertFalse(success);
+        Assertions.assertEquals(1, entityLocker.lockTable.size());
+
+        final AtomicInteger freeEntities = new AtomicInteger();
+        Thread otherThread = new Thread(() -> {
+            try {
+                for (int entityId = 1; entityId <= 2; entityId++) {
+                    if (entityLocker.tryLockAndExecute(entityId, () -> {
+                    }, 10)) {
+                        freeEntities.incrementAndGet();
+                    }
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        otherThread.start();
+        otherThread.join();
+
+        release.countDown();
+        blockingThread.join();
+
+        Assertions.assertEquals(2, freeEntities.get());
+
+    }
+
+    @Test
+    public void testDuplicateAndCollidingEntities() throws InterruptedException {
+
+        final AtomicInteger successCounter = new AtomicInteger();
+
+        new EntityLocker<Integer>().lockAllAndExecute(Arrays.asList(1, 2, 1), successCounter::incrementAndGet, 100);
+        EntityLocker.<Integer>striped(1).lockAllAndExecute(Arrays.asList(1, 2, 3), successCounter::incrementAndGet, 100);
+
+        Assertions.assertEquals(2, successCounter.get());
+
+    }
+
+    @Test
+    public void testNestedLockAllIsCheckedForDeadlocks() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicBoolean deadlockPrevented = new AtomicBoolean();
+
+        Thread t1 = new Thread(new NestedLockAllTask(entityLocker, 1, 2, latch, deadlockPrevented));
+        Thread t2 = new Thread(new NestedLockAllTask(entityLocker, 2, 1, latch, deadlockPrevented));
+
+        t1.start();
+        t2.start();
+        t1.join();
+        t2.join();
+
+        Assertions.assertTrue(deadlockPrevented.get());
+
+    }
+
+    private static class NestedLockAllTask implements Runnable {
+
+        private final EntityLocker<Integer> entityLocker;
+        private final int outerEntityId;
+        private final int innerEntityId;
+        private final CountDownLatch latch;
+        private final AtomicBoolean deadlockPrevented;
+
+        NestedLockAllTask(EntityLocker<Integer> entityLocker, int outerEntityId, int innerEntityId, CountDownLatch latch, AtomicBoolean deadlockPrevented) {
+            this.entityLocker = entityLocker;
+            this.outerEntityId = outerEntityId;
+            this.innerEntityId = innerEntityId;
+            this.latch = latch;
+            this.deadlockPrevented = deadlockPrevented;
+        }
+
+        @Override
+        public void run() {
+            try {
+                entityLocker.lockAndExecute(outerEntityId, () -> {
+                    try {
+                        latch.countDown();
+                        latch.await();
+                        entityLocker.lockAllAndExecute(Arrays.asList(innerEntityId, 100 + innerEntityId), () -> {
+                        }, 0);
+                    } catch (EntityLocker.DeadlockPreventedException e) {
+                        deadlockPrevented.set(true);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityLockerLockEscalationTest {
+
+    private static final int ESCALATION_THRESHOLD = 10;
+
+    @Test
+    public void testLocksAreEscalatedAboveThreshold() throws InterruptedException {
+
+        final RingBufferLockEventListener<Integer> listener = new RingBufferLockEventListener<>(256);
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(listener);
+        entityLocker.setEscalationThreshold(ESCALATION_THRESHOLD);
+        final AtomicInteger locksInTableAfterEscalation = new AtomicInteger(-1);
+
+        lockNested(entityLocker, 0, ESCALATION_THRESHOLD + 1, () -> locksInTableAfterEscalation.set(entityLocker.lockTable.size()));
+
+        Assertions.assertEquals(1, entityLocker.getEscalationCount());
+        Assertions.assertEquals(0, locksInTableAfterEscalation.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+        Assertions.assertTrue(listener.snapshot().stream().anyMatch(e -> e.type == RingBufferLockEventListener.EventType.LOCK_ESCALATED));
+        Assertions.assertTrue(entityLocker.tryLockAndExecute(0, () -> {
+        }, 100));
+
+    }
+
+    @Test
+    public void testNoEscalationAtThreshold() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        entityLocker.setEscalationThreshold(ESCALATION_THRESHOLD);
+
+        lockNested(entityLocker, 0, ESCALATION_THRESHOLD, () -> {
+        });
+
+        Assertions.assertEquals(0, entityLocker.getEscalationCount());
+
+    }
+
+    @Test
+    public void testEscalatedLockExcludesOtherThreads() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        entityLocker.setEscalationThreshold(ESCALATION_THRESHOLD);
+        final CountDownLatch escalated = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean reentrantLockSucceeded = new AtomicBoolean();
+
+        Thread batchThread = new Thread(() -> {
+            try {
+                lockNested(entityLocker, 0, ESCALATION_THRESHOLD + 1, () -> {
+                    try {
+                        //Entity 0 was held before the escalation, locking it again must still work
+                        reentrantLockSucceeded.set(entityLocker.tryLockAndExecute(0, () -> {
+                        }, 100));
+                        escalated.countDown();
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        batchThread.start();
+        escalated.await();
+
+        boolean success = entityLocker.tryLockAndExecute(1000, () -> {
+        }, 100);
+
+        release.countDown();
+        batchThread.join();
+
+        Assertions.assertFalse(success);
+        Assertions.assertTrue(reentrantLockSucceeded.get());
+        Assertions.assertTrue(entityLocker.tryLockAndExecute(1000, () -> {
+        }, 100));
+
+    }
+
+    private static void lockNested(EntityLocker<Integer> entityLocker, int entityId, int numberOfLocks, Runnable innermostCode) throws InterruptedException {
+        if (numberOfLocks == 0) {
+            innermostCode.run();
+            return;
+        }
+        entityLocker.lockAndExecute(entityId, () -> {
+            try {
+                lockNested(entityLocker, entityId + 1, numberOfLocks - 1, innermostCode);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+}
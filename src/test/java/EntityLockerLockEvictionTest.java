@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class EntityLockerLockEvictionTest {
+
+    @Test
+    public void testLocksAreEvictedAfterBurstOfTraffic() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 16;
+        final int OPERATIONS_PER_THREAD = 10_000;
+        final int NUMBER_OF_ENTITIES = 1000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch latch = new CountDownLatch(NUMBER_OF_THREADS);
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final int seed = i;
+            threads.add(new Thread(() -> {
+                try {
+                    latch.countDown();
+                    latch.await();
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        entityLocker.tryLockAndExecute((seed * 31 + j) % NUMBER_OF_ENTITIES, () -> {
+                        }, 1000);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testEvictionKeepsExclusiveAccess() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int OPERATIONS_PER_THREAD = 20_000;
+        final int NUMBER_OF_ENTITIES = 4;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final int[] counters = new int[NUMBER_OF_ENTITIES];
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        final int entityId = j % NUMBER_OF_ENTITIES;
+                        //Not atomic on purpose: lost updates would mean two threads were inside protected code at once
+                        entityLocker.lockAndExecute(entityId, () -> counters[entityId]++);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        for (int counter : counters) {
+            Assertions.assertEquals(NUMBER_OF_THREADS * OPERATIONS_PER_THREAD / NUMBER_OF_ENTITIES, counter);
+        }
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+}
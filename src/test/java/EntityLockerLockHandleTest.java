@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class EntityLockerLockHandleTest {
+
+    @Test
+    public void testHandleKeepsExclusiveAccess() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int OPERATIONS_PER_THREAD = 10_000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final int[] counter = new int[1];
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        try (LockHandle handle = entityLocker.acquire(1, 0)) {
+                            counter[0]++;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertEquals(NUMBER_OF_THREADS * OPERATIONS_PER_THREAD, counter[0]);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testNestedHandlesAreReentrantAndPooled() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        LockHandle outerHandle;
+        LockHandle innerHandle;
+
+        try (LockHandle outer = entityLocker.acquire(1, 0)) {
+            outerHandle = outer;
+            try (LockHandle inner = entityLocker.acquire(1, 0)) {
+                innerHandle = inner;
+                Assertions.assertNotSame(outer, inner);
+            }
+            Assertions.assertEquals(1, entityLocker.lockTable.size());
+        }
+
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+        try (LockHandle handle = entityLocker.acquire(2, 0)) {
+            Assertions.assertSame(outerHandle, handle);
+            try (LockHandle nested = entityLocker.acquire(3, 0)) {
+                Assertions.assertSame(innerHandle, nested);
+            }
+        }
+
+    }
+
+    @Test
+    public void testAcquireReturnsNullOnTimeout() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+
+        try (LockHandle handle = entityLocker.acquire(1, 0)) {
+            Thread otherThread = new Thread(() -> {
+                try (LockHandle otherHandle = entityLocker.acquire(1, 50)) {
+                    timedOut.set(otherHandle == null);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            otherThread.start();
+            otherThread.join();
+        }
+
+        Assertions.assertTrue(timedOut.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testClosingOutOfOrderIsRefused() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+
+        LockHandle outer = entityLocker.acquire(1, 0);
+        LockHandle inner = entityLocker.acquire(2, 0);
+
+        Assertions.assertThrows(IllegalStateException.class, outer::close);
+        inner.close();
+        outer.close();
+
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testPooledHandlesDoNotKeepLockerReachable() throws InterruptedException {
+
+        WeakReference<EntityLocker<Integer>> usedLocker = useLocker();
+
+        for (int i = 0; i < 50 && usedLocker.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        Assertions.assertNull(usedLocker.get());
+
+    }
+
+    /**
+     * Locks through a new locker on the current thread, nested so that handles of two depths are pooled, and drops it.
+     */
+    private static WeakReference<EntityLocker<Integer>> useLocker() throws InterruptedException {
+        EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        try (LockHandle outer = entityLocker.acquire(1, 0)) {
+            entityLocker.lockAndExecute(2, () -> {
+            });
+        }
+        return new WeakReference<>(entityLocker);
+    }
+}
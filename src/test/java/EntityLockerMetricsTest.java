@@ -0,0 +1,196 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class EntityLockerMetricsTest {
+
+    @Test
+    public void testAcquisitionsAndHoldTimesAreRecorded() throws InterruptedException {
+
+        final LockMetrics<Integer> metrics = new LockMetrics<>(16, 1);
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(metrics);
+
+        for (int i = 0; i < 10; i++) {
+            entityLocker.lockAndExecute(1, () -> {
+                try {
+                    entityLocker.lockAndExecute(1, () -> {
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        LockMetrics.Snapshot<Integer> snapshot = metrics.snapshot();
+        Assertions.assertEquals(20, snapshot.acquisitions);
+        Assertions.assertEquals(0, snapshot.contendedAcquisitions);
+        Assertions.assertEquals(20, snapshot.holdTime.count());
+        Assertions.assertEquals(0, snapshot.waitTime.count());
+
+    }
+
+    @Test
+    public void testWaitsAndTimeoutsAreRecorded() throws InterruptedException {
+
+        final int entityId = 1;
+        final LockMetrics<Integer> metrics = new LockMetrics<>();
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(metrics);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread blockingThread = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(entityId, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+
+        blockingThread.start();
+        locked.await();
+
+        boolean success = entityLocker.tryLockAndExecute(entityId, () -> {
+        }, 50);
+
+        release.countDown();
+        blockingThread.join();
+
+        Assertions.assertFalse(success);
+        LockMetrics.Snapshot<Integer> snapshot = metrics.snapshot();
+        Assertions.assertEquals(1, snapshot.timeouts);
+        Assertions.assertEquals(1, snapshot.waitTime.count());
+        Assertions.assertTrue(snapshot.waitTime.max() >= 50_000_000, "waited " + snapshot.waitTime.max() + " ns");
+        Assertions.assertEquals(Integer.valueOf(entityId), snapshot.contendedKeys.get(0).entityId);
+
+    }
+
+    @Test
+    public void testMostFrequentEntityIsTheHottestKey() throws InterruptedException {
+
+        final LockMetrics<Integer> metrics = new LockMetrics<>(4, 1);
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(metrics);
+
+        for (int i = 0; i < 1000; i++) {
+            entityLocker.lockAndExecute(i % 2 == 0 ? -1 : i, () -> {
+            });
+        }
+
+        LockMetrics.Snapshot<Integer> snapshot = metrics.snapshot();
+        Assertions.assertEquals(4, snapshot.hotKeys.size());
+        Assertions.assertEquals(Integer.valueOf(-1), snapshot.hotKeys.get(0).entityId);
+        Assertions.assertTrue(snapshot.hotKeys.get(0).count >= 500);
+
+    }
+
+    @Test
+    public void testDeadlockPreventionIsCounted() {
+
+        final LockMetrics<Integer> metrics = new LockMetrics<>();
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(metrics);
+
+        Assertions.assertThrows(EntityLocker.DeadlockPreventedException.class, () ->
+                entityLocker.readLockAndExecute(1, () -> {
+                    try {
+                        entityLocker.writeLockAndExecute(1, () -> {
+                        });
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+
+        Assertions.assertEquals(1, metrics.snapshot().deadlocksPrevented);
+
+    }
+
+    @Test
+    public void testMetricsAreExposedOverJmx() throws Exception {
+
+        final LockMetrics<Integer> metrics = new LockMetrics<>();
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>(metrics);
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        entityLocker.lockAndExecute(1, () -> {
+        });
+
+        ObjectName name = metrics.registerMBean("testMetricsAreExposedOverJmx");
+        try {
+            Assertions.assertEquals(1L, mBeanServer.getAttribute(name, "AcquisitionCount"));
+            Assertions.assertEquals(0L, mBeanServer.getAttribute(name, "TimeoutCount"));
+        } finally {
+            mBeanServer.unregisterMBean(name);
+        }
+
+    }
+
+    @Test
+    public void testHistogramPercentilesAreWithinBucketPrecision() {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(1000, snapshot.count());
+        Assertions.assertEquals(500_000, snapshot.valueAtPercentile(50), 500_000 / 16.0);
+        Assertions.assertEquals(990_000, snapshot.valueAtPercentile(99), 990_000 / 16.0);
+        Assertions.assertEquals(1_000_000, snapshot.max(), 1_000_000 / 16.0);
+
+    }
+
+    @Test
+    public void testAbortedWaitIsNotTimedLater() throws InterruptedException {
+
+        final LockMetrics<Integer> metrics = new LockMetrics<>();
+
+        metrics.onWaitStarted(1);
+        metrics.onDeadlockPrevented(1);
+        Thread.sleep(50);
+        // A later attempt giving up without waiting, such as one past its deadline
+        metrics.onTimedOut(1);
+
+        LockMetrics.Snapshot<Integer> snapshot = metrics.snapshot();
+        Assertions.assertEquals(1, snapshot.deadlocksPrevented);
+        Assertions.assertEquals(1, snapshot.timeouts);
+        Assertions.assertEquals(0, snapshot.waitTime.count());
+
+    }
+
+    @Test
+    public void testThreadTimersDoNotKeepMetricsReachable() throws InterruptedException {
+
+        WeakReference<LockMetrics<Integer>> usedMetrics = useMetrics();
+
+        for (int i = 0; i < 50 && usedMetrics.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        Assertions.assertNull(usedMetrics.get());
+
+    }
+
+    /**
+     * Records into new metrics on the current thread, which keeps its thread timer, and drops them.
+     */
+    private static WeakReference<LockMetrics<Integer>> useMetrics() throws InterruptedException {
+        LockMetrics<Integer> metrics = new LockMetrics<>();
+        EntityLocker<Integer> entityLocker = new EntityLocker<>(metrics);
+        entityLocker.lockAndExecute(1, () -> {
+        });
+        return new WeakReference<>(metrics);
+    }
+}
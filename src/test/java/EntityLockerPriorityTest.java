@@ -0,0 +1,173 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class EntityLockerPriorityTest {
+
+    @Test
+    public void testHigherPriorityWaiterGoesFirst() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> waiters = new ArrayList<>();
+
+        EntityLockerFixtures.holdingLock(entityLocker, 1, () -> {
+            for (int i = 0; i < 5; i++)
+                waiters.add(queueWaiter(entityLocker, 1, 0, i, order));
+            waiters.add(queueWaiter(entityLocker, 1, 1, -1, order));
+        });
+        for (Thread t : waiters)
+            t.join();
+
+        Assertions.assertEquals(List.of(-1, 0, 1, 2, 3, 4), order);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testLowPriorityWaitersAge() throws InterruptedException {
+
+        final int NUMBER_OF_WAITERS = 2 * EntityLock.AGING_STEP;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> waiters = new ArrayList<>();
+
+        EntityLockerFixtures.holdingLock(entityLocker, 1, () -> {
+            for (int i = 0; i < NUMBER_OF_WAITERS; i++)
+                waiters.add(queueWaiter(entityLocker, 1, 0, i, order));
+            waiters.add(queueWaiter(entityLocker, 1, 1, -1, order));
+        });
+        for (Thread t : waiters)
+            t.join();
+
+        // One level of priority passes less than AGING_STEP waiters, the ones queued longer still go first
+        int position = order.indexOf(-1);
+        Assertions.assertEquals(NUMBER_OF_WAITERS - EntityLock.AGING_STEP + 1, position);
+        for (int i = 0; i < position; i++)
+            Assertions.assertEquals(i, (int) order.get(i));
+
+    }
+
+    @Test
+    public void testMixedPrioritiesExcludeEachOther() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int OPERATIONS_PER_THREAD = 10_000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final int[] counter = new int[1];
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            int priority = i % 3 - 1;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++)
+                        entityLocker.lockAndExecute(1, priority, () -> counter[0]++);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertEquals(NUMBER_OF_THREADS * OPERATIONS_PER_THREAD, counter[0]);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testTimedOutPriorityWaiterLeavesQueue() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicBoolean locked = new AtomicBoolean(true);
+
+        EntityLockerFixtures.holdingLock(entityLocker, 1, () -> {
+            try {
+                locked.set(entityLocker.tryLockAndExecute(1, 10, () -> {
+                }, 50));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Assertions.assertFalse(EntityLockerFixtures.lockOf(entityLocker, 1).hasQueuedThreads());
+        });
+
+        Assertions.assertFalse(locked.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testPriorityWaitIsCheckedForDeadlock() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch otherLocked = new CountDownLatch(1);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        entityLocker.lockAndExecute(1, () -> {
+            // Holds entity 2 and waits for entity 1, with a priority of its own
+            Thread otherThread = new Thread(() -> {
+                try {
+                    entityLocker.lockAndExecute(2, () -> {
+                        otherLocked.countDown();
+                        try {
+                            entityLocker.lockAndExecute(1, 5, () -> {
+                            });
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            otherThread.start();
+            try {
+                otherLocked.await();
+                awaitQueueLength(entityLocker, 1, 1);
+                entityLocker.lockAndExecute(2, 5, () -> {
+                });
+            } catch (EntityLocker.DeadlockPreventedException e) {
+                failure.set(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Assertions.assertNotNull(failure.get());
+
+    }
+
+    /**
+     * Starts a thread queueing for the entity with the given priority, and returns once it is queued.
+     */
+    private static Thread queueWaiter(EntityLocker<Integer> entityLocker, int entityId, int priority, int mark, List<Integer> order) {
+        int queued = EntityLockerFixtures.lockOf(entityLocker, entityId).getQueueLength();
+        Thread waiter = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(entityId, priority, () -> order.add(mark));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        waiter.start();
+        awaitQueueLength(entityLocker, entityId, queued + 1);
+        return waiter;
+    }
+
+    private static void awaitQueueLength(EntityLocker<Integer> entityLocker, int entityId, int length) {
+        EntityLock lock = EntityLockerFixtures.lockOf(entityLocker, entityId);
+        while (lock.getQueueLength() < length)
+            Thread.yield();
+    }
+}
@@ -0,0 +1,342 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityLockerReadWriteTest {
+
+    @Test
+    public void testReadersRunConcurrently() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch allInside = new CountDownLatch(NUMBER_OF_THREADS);
+        final AtomicInteger successCounter = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    entityLocker.readLockAndExecute(1, () -> {
+                        allInside.countDown();
+                        try {
+                            // Only possible if all readers hold the lock at the same time
+                            if (allInside.await(5, TimeUnit.SECONDS)) {
+                                successCounter.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertEquals(NUMBER_OF_THREADS, successCounter.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testReadersNeverSeePartialWrites() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int OPERATIONS_PER_THREAD = 10_000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final int[] pair = new int[2];
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final boolean writer = i % 4 == 0;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        if (writer) {
+                            entityLocker.writeLockAndExecute(1, () -> {
+                                pair[0]++;
+                                pair[1]++;
+                            });
+                        } else {
+                            entityLocker.readLockAndExecute(1, () -> {
+                                if (pair[0] != pair[1]) {
+                                    failed.set(true);
+                                }
+                            });
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failed.set(true);
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertFalse(failed.get());
+        Assertions.assertEquals(2 * OPERATIONS_PER_THREAD, pair[0]);
+        Assertions.assertEquals(pair[0], pair[1]);
+
+    }
+
+    @Test
+    public void testUpgradeIsRefused() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+
+        Assertions.assertThrows(EntityLocker.DeadlockPreventedException.class, () ->
+                entityLocker.readLockAndExecute(1, () -> {
+                    try {
+                        entityLocker.writeLockAndExecute(1, () -> {
+                        });
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }));
+
+        Assertions.assertTrue(entityLocker.tryWriteLockAndExecute(1, () -> {
+        }, 100));
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testStripedReadThenWriteOfOtherEntityUpgradesStripe() throws InterruptedException {
+
+        // With a single stripe every pair of entities collides
+        final EntityLocker<Integer> entityLocker = EntityLocker.striped(1);
+        final AtomicBoolean written = new AtomicBoolean();
+        final AtomicBoolean otherReaderLocked = new AtomicBoolean(true);
+
+        entityLocker.readLockAndExecute(1, () -> {
+            try {
+                entityLocker.writeLockAndExecute(2, () -> {
+                    written.set(true);
+                    Thread otherReader = new Thread(() -> {
+                        try {
+                            otherReaderLocked.set(entityLocker.tryReadLockAndExecute(3, () -> {
+                            }, 50));
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                    });
+                    otherReader.start();
+                    try {
+                        otherReader.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                // The write lock is gone, the stripe is only read again
+                Assertions.assertTrue(entityLocker.tryReadLockAndExecute(3, () -> {
+                }, 0));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        Assertions.assertTrue(written.get());
+        Assertions.assertFalse(otherReaderLocked.get());
+        // Reading and then writing the same entity is still refused
+        Assertions.assertThrows(EntityLocker.DeadlockPreventedException.class, () ->
+                entityLocker.readLockAndExecute(1, () -> {
+                    try {
+                        entityLocker.writeLockAndExecute(1, () -> {
+                        });
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }));
+        Assertions.assertTrue(entityLocker.tryWriteLockAndExecute(2, () -> {
+        }, 100));
+
+    }
+
+    @Test
+    public void testStripedUpgradeWithOtherReadersIsACollision() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = EntityLocker.striped(1);
+        final CountDownLatch otherReaderLocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread otherReader = new Thread(() -> {
+            try {
+                entityLocker.readLockAndExecute(3, () -> {
+                    otherReaderLocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        otherReader.start();
+        otherReaderLocked.await();
+
+        Assertions.assertThrows(EntityLocker.StripeCollisionException.class, () ->
+                entityLocker.readLockAndExecute(1, () -> {
+                    try {
+                        entityLocker.writeLockAndExecute(2, () -> {
+                        });
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }));
+
+        release.countDown();
+        otherReader.join();
+        Assertions.assertTrue(entityLocker.tryWriteLockAndExecute(2, () -> {
+        }, 100));
+
+    }
+
+    @Test
+    public void testDowngradeAndReentrance() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final AtomicInteger successCounter = new AtomicInteger();
+
+        entityLocker.writeLockAndExecute(1, () -> {
+            try {
+                entityLocker.readLockAndExecute(1, () -> {
+                    try {
+                        entityLocker.readLockAndExecute(1, successCounter::incrementAndGet);
+                        entityLocker.writeLockAndExecute(1, successCounter::incrementAndGet);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        Assertions.assertEquals(2, successCounter.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testWriterTimesOutWhileReaderHoldsLock() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread readingThread = new Thread(() -> {
+            try {
+                entityLocker.readLockAndExecute(1, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        readingThread.start();
+        locked.await();
+
+        Assertions.assertTrue(entityLocker.tryReadLockAndExecute(1, () -> {
+        }, 100));
+        Assertions.assertFalse(entityLocker.tryWriteLockAndExecute(1, () -> {
+        }, 100));
+
+        release.countDown();
+        readingThread.join();
+
+        Assertions.assertTrue(entityLocker.tryWriteLockAndExecute(1, () -> {
+        }, 100));
+
+    }
+
+    @Test
+    public void testDeadlockBetweenReadersAndWritersIsPrevented() throws InterruptedException {
+
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch bothReading = new CountDownLatch(2);
+        final AtomicInteger deadlockPrevented = new AtomicInteger();
+        final AtomicInteger successCounter = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(new ReadThenWriteTask(entityLocker, 1, 2, bothReading, deadlockPrevented, successCounter)));
+        threads.add(new Thread(new ReadThenWriteTask(entityLocker, 2, 1, bothReading, deadlockPrevented, successCounter)));
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertTrue(deadlockPrevented.get() >= 1);
+        Assertions.assertEquals(2, deadlockPrevented.get() + successCounter.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    private static class ReadThenWriteTask implements Runnable {
+
+        private final EntityLocker<Integer> entityLocker;
+        private final int readEntityId;
+        private final int writtenEntityId;
+        private final CountDownLatch bothReading;
+        private final AtomicInteger deadlockPrevented;
+        private final AtomicInteger successCounter;
+
+        ReadThenWriteTask(EntityLocker<Integer> entityLocker, int readEntityId, int writtenEntityId, CountDownLatch bothReading,
+                          AtomicInteger deadlockPrevented, AtomicInteger successCounter) {
+            this.entityLocker = entityLocker;
+            this.readEntityId = readEntityId;
+            this.writtenEntityId = writtenEntityId;
+            this.bothReading = bothReading;
+            this.deadlockPrevented = deadlockPrevented;
+            this.successCounter = successCounter;
+        }
+
+        @Override
+        public void run() {
+            try {
+                entityLocker.readLockAndExecute(readEntityId, () -> {
+                    try {
+                        bothReading.countDown();
+                        bothReading.await();
+                        entityLocker.writeLockAndExecute(writtenEntityId, successCounter::incrementAndGet);
+                    } catch (EntityLocker.DeadlockPreventedException e) {
+                        deadlockPrevented.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
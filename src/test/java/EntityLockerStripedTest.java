@@ -0,0 +1,97 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class EntityLockerStripedTest {
+
+    @Test
+    public void testStripedLockerKeepsExclusiveAccess() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int OPERATIONS_PER_THREAD = 25_600;
+        final int NUMBER_OF_ENTITIES = 64;
+        final EntityLocker<Integer> entityLocker = EntityLocker.striped(16);
+        final int[] counters = new int[NUMBER_OF_ENTITIES];
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                        final int entityId = j % NUMBER_OF_ENTITIES;
+                        entityLocker.lockAndExecute(entityId, () -> counters[entityId]++);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        for (int counter : counters) {
+            Assertions.assertEquals(NUMBER_OF_THREADS * OPERATIONS_PER_THREAD / NUMBER_OF_ENTITIES, counter);
+        }
+        Assertions.assertEquals(16, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testEntitiesSharingStripeDoNotCauseFalseDeadlockPrevention() throws InterruptedException {
+
+        //With a single stripe every pair of entities collides
+        final EntityLocker<Integer> entityLocker = EntityLocker.striped(1);
+        final AtomicBoolean deadlockPrevented = new AtomicBoolean();
+        final int NUMBER_OF_THREADS = 4;
+
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final int outerEntityId = i;
+            final int innerEntityId = NUMBER_OF_THREADS - i;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < 1000; j++) {
+                        entityLocker.lockAndExecute(outerEntityId, () -> {
+                            try {
+                                entityLocker.lockAndExecute(innerEntityId, () -> {
+                                });
+                            } catch (InterruptedException e) {
+                                e.printStackTrace();
+                            }
+                        });
+                    }
+                } catch (EntityLocker.DeadlockPreventedException e) {
+                    deadlockPrevented.set(true);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertFalse(deadlockPrevented.get());
+
+    }
+
+    @Test
+    public void testNumberOfStripesIsRoundedUpToPowerOfTwo() {
+
+        Assertions.assertEquals(8, EntityLocker.<Integer>striped(5).lockTable.size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> EntityLocker.<Integer>striped(0));
+
+    }
+}
@@ -0,0 +1,165 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntityLockerVirtualThreadsTest {
+
+    @BeforeEach
+    public void requireVirtualThreads() {
+        Assumptions.assumeTrue(Runtime.version().feature() >= 21, "virtual threads need Java 21");
+    }
+
+    @Test
+    public void testMillionThreadsOverSharedKeys() throws InterruptedException {
+
+        final int NUMBER_OF_TASKS = 1_000_000;
+        final int NUMBER_OF_ENTITIES = 1000;
+        // Every so often the protected code parks, so waiters pile up and have to unmount instead of spinning
+        final int PARKING_TASK_INTERVAL = 1000;
+        // Far more threads than entities still wait at once, without all million of them filling the heap together
+        final int MAX_THREADS_IN_FLIGHT = 10_000;
+        final Semaphore inFlight = new Semaphore(MAX_THREADS_IN_FLIGHT);
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final int[] counters = new int[NUMBER_OF_ENTITIES];
+        final AtomicInteger completedTasks = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+        for (int i = 0; i < NUMBER_OF_TASKS; i++) {
+            final boolean parking = i % PARKING_TASK_INTERVAL == 0;
+            inFlight.acquire();
+            executor.execute(() -> {
+                final int entityId = ThreadLocalRandom.current().nextInt(NUMBER_OF_ENTITIES);
+                try {
+                    entityLocker.lockAndExecute(entityId, () -> {
+                        counters[entityId]++;
+                        if (parking) {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                failed.set(true);
+                            }
+                        }
+                    });
+                    completedTasks.incrementAndGet();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failed.set(true);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+
+        Assertions.assertFalse(failed.get());
+        Assertions.assertEquals(NUMBER_OF_TASKS, completedTasks.get());
+        int sum = 0;
+        for (int counter : counters)
+            sum += counter;
+        Assertions.assertEquals(NUMBER_OF_TASKS, sum);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testWaitersDoNotStarveOtherVirtualThreads() throws InterruptedException {
+
+        // Far more waiters than carrier threads, so waiters pinning their carriers would leave none for anyone else
+        final int NUMBER_OF_WAITERS = Runtime.getRuntime().availableProcessors() * 64;
+        final int OPERATIONS_OF_OTHER_THREAD = 10_000;
+        final EntityLocker<Integer> entityLocker = new EntityLocker<>();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherThreadDone = new CountDownLatch(1);
+        final AtomicInteger otherThreadOperations = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+
+        threads.add(startVirtualThread(() -> {
+            try {
+                entityLocker.lockAndExecute(1, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }));
+        locked.await();
+
+        for (int i = 0; i < NUMBER_OF_WAITERS; i++) {
+            threads.add(startVirtualThread(() -> {
+                try {
+                    entityLocker.lockAndExecute(1, () -> {
+                    });
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }));
+        }
+        EntityLock lock = ((EvictingLockTable<Integer>) entityLocker.lockTable).locks.get(1);
+        while (lock.getQueueLength() < NUMBER_OF_WAITERS)
+            Thread.sleep(1);
+
+        threads.add(startVirtualThread(() -> {
+            try {
+                for (int i = 0; i < OPERATIONS_OF_OTHER_THREAD; i++)
+                    entityLocker.lockAndExecute(2, otherThreadOperations::incrementAndGet);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            otherThreadDone.countDown();
+        }));
+
+        try {
+            Assertions.assertTrue(otherThreadDone.await(30, TimeUnit.SECONDS));
+            Assertions.assertEquals(OPERATIONS_OF_OTHER_THREAD, otherThreadOperations.get());
+            Assertions.assertEquals(NUMBER_OF_WAITERS, lock.getQueueLength());
+        } finally {
+            release.countDown();
+        }
+
+        for (Thread t : threads)
+            t.join();
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looked up reflectively, as the tree builds on Java 17 where virtual threads do not exist yet.
+     */
+    private static Thread startVirtualThread(Runnable task) {
+        try {
+            return (Thread) Thread.class.getMethod("startVirtualThread", Runnable.class).invoke(null, task);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
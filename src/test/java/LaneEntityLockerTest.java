@@ -0,0 +1,157 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LaneEntityLockerTest {
+
+    @Test
+    public void testLaneKeepsExclusiveAccess() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 8;
+        final int OPERATIONS_PER_THREAD = 10_000;
+        final int[] counters = new int[4];
+
+        try (LaneEntityLocker<Integer> entityLocker = new LaneEntityLocker<>(2)) {
+            List<Thread> threads = new ArrayList<>();
+
+            for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+                threads.add(new Thread(() -> {
+                    try {
+                        for (int j = 0; j < OPERATIONS_PER_THREAD; j++) {
+                            int entityId = j % counters.length;
+                            entityLocker.lockAndExecute(entityId, () -> counters[entityId]++);
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }));
+            }
+
+            for (Thread t : threads)
+                t.start();
+
+            for (Thread t : threads)
+                t.join();
+        }
+
+        for (int counter : counters)
+            Assertions.assertEquals(NUMBER_OF_THREADS * OPERATIONS_PER_THREAD / counters.length, counter);
+
+    }
+
+    @Test
+    public void testNestedLockingIsReentrantAndCrossesLanes() throws InterruptedException {
+
+        final AtomicInteger reached = new AtomicInteger();
+
+        try (LaneEntityLocker<Integer> entityLocker = new LaneEntityLocker<>(2)) {
+            entityLocker.lockAndExecute(0, () -> {
+                try {
+                    entityLocker.lockAndExecute(0, reached::incrementAndGet);
+                    entityLocker.lockAndExecute(1, reached::incrementAndGet);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        Assertions.assertEquals(2, reached.get());
+
+    }
+
+    @Test
+    public void testCrosswiseLanesAreDeadlockPrevented() throws InterruptedException {
+
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        final AtomicBoolean deadlockPrevented = new AtomicBoolean();
+
+        try (LaneEntityLocker<Integer> entityLocker = new LaneEntityLocker<>(2)) {
+            Thread t1 = new Thread(() -> lockCrosswise(entityLocker, 0, 1, bothRunning, deadlockPrevented));
+            Thread t2 = new Thread(() -> lockCrosswise(entityLocker, 1, 0, bothRunning, deadlockPrevented));
+
+            t1.start();
+            t2.start();
+            t1.join();
+            t2.join();
+        }
+
+        Assertions.assertTrue(deadlockPrevented.get());
+
+    }
+
+    @Test
+    public void testQueuedCodeTimesOutAndNeverRuns() throws InterruptedException {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        try (LaneEntityLocker<Integer> entityLocker = new LaneEntityLocker<>(1)) {
+            Thread blocker = new Thread(() -> {
+                try {
+                    entityLocker.lockAndExecute(1, () -> {
+                        try {
+                            started.countDown();
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            blocker.start();
+            started.await();
+
+            Assertions.assertFalse(entityLocker.tryLockAndExecute(1, () -> ran.set(true), 50));
+            release.countDown();
+            blocker.join();
+            Assertions.assertTrue(entityLocker.tryLockAndExecute(1, () -> {
+            }, 1000));
+        }
+
+        Assertions.assertFalse(ran.get());
+
+    }
+
+    @Test
+    public void testExceptionReachesCaller() throws InterruptedException {
+
+        final IllegalStateException failure = new IllegalStateException();
+
+        try (LaneEntityLocker<Integer> entityLocker = new LaneEntityLocker<>(1)) {
+            Assertions.assertSame(failure, Assertions.assertThrows(IllegalStateException.class, () -> entityLocker.lockAndExecute(1, () -> {
+                throw failure;
+            })));
+            Assertions.assertTrue(entityLocker.tryLockAndExecute(1, () -> {
+            }, 1000));
+        }
+
+    }
+
+    private static void lockCrosswise(LaneEntityLocker<Integer> entityLocker, int firstEntityId, int secondEntityId, CountDownLatch bothRunning,
+                                      AtomicBoolean deadlockPrevented) {
+        try {
+            entityLocker.lockAndExecute(firstEntityId, () -> {
+                try {
+                    bothRunning.countDown();
+                    bothRunning.await();
+                    entityLocker.lockAndExecute(secondEntityId, () -> {
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        } catch (EntityLocker.DeadlockPreventedException e) {
+            deadlockPrevented.set(true);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LongEntityLockerTest {
+
+    private static final long[] ENTITY_IDS = {0, 1, -1, 2, 42, 1L << 32, (1L << 32) + 1, Long.MIN_VALUE, Long.MAX_VALUE};
+
+    @Test
+    public void testConcurrentIncrementsOfEntities() throws InterruptedException {
+
+        final int NUMBER_OF_THREADS = 16;
+        final int NUMBER_OF_ITERATIONS = 20000;
+        final LongEntityLocker entityLocker = new LongEntityLocker();
+        final int[] counters = new int[ENTITY_IDS.length];
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < NUMBER_OF_ITERATIONS; j++) {
+                    final int index = ThreadLocalRandom.current().nextInt(ENTITY_IDS.length);
+                    try {
+                        entityLocker.lockAndExecute(ENTITY_IDS[index], () -> counters[index]++);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        failed.set(true);
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertFalse(failed.get());
+        int sum = 0;
+        for (int counter : counters)
+            sum += counter;
+        Assertions.assertEquals(NUMBER_OF_THREADS * NUMBER_OF_ITERATIONS, sum);
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testManyEntitiesHeldAtOnceAreReleased() throws InterruptedException {
+
+        final int NUMBER_OF_ENTITIES = 500;
+        final LongEntityLocker entityLocker = new LongEntityLocker();
+        final AtomicInteger deepestLevel = new AtomicInteger();
+
+        // Enough locks held at once to make the segments grow, released in reverse order of their probe sequences
+        entityLocker.lockAndExecute(0, new NestedLocking(entityLocker, 1, NUMBER_OF_ENTITIES, deepestLevel));
+
+        Assertions.assertEquals(NUMBER_OF_ENTITIES, deepestLevel.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+        for (int i = 0; i < NUMBER_OF_ENTITIES; i++) {
+            Assertions.assertTrue(entityLocker.tryLockAndExecute(i * 1024L, () -> {
+            }, 10));
+        }
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testReentrance() throws InterruptedException {
+
+        final LongEntityLocker entityLocker = new LongEntityLocker();
+        final AtomicInteger successCounter = new AtomicInteger();
+
+        entityLocker.lockAndExecute(Long.MAX_VALUE, () -> {
+            try {
+                entityLocker.lockAndExecute(Long.MAX_VALUE, () -> {
+                    try {
+                        entityLocker.lockAndExecute(Long.MAX_VALUE, successCounter::incrementAndGet);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        Assertions.assertEquals(1, successCounter.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+
+        final LongEntityLocker entityLocker = new LongEntityLocker();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread holder = new Thread(() -> {
+            try {
+                entityLocker.lockAndExecute(7, () -> {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        holder.start();
+        locked.await();
+
+        Assertions.assertFalse(entityLocker.tryLockAndExecute(7, () -> {
+        }, 50));
+
+        release.countDown();
+        holder.join();
+
+        Assertions.assertTrue(entityLocker.tryLockAndExecute(7, () -> {
+        }, 50));
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    @Test
+    public void testDeadlockIsPrevented() throws InterruptedException {
+
+        final LongEntityLocker entityLocker = new LongEntityLocker();
+        final CountDownLatch bothLocked = new CountDownLatch(2);
+        final AtomicInteger deadlockPrevented = new AtomicInteger();
+        final AtomicInteger successCounter = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(new CrossLockingTask(entityLocker, 1, 2, bothLocked, deadlockPrevented, successCounter)));
+        threads.add(new Thread(new CrossLockingTask(entityLocker, 2, 1, bothLocked, deadlockPrevented, successCounter)));
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        Assertions.assertTrue(deadlockPrevented.get() >= 1);
+        Assertions.assertEquals(2, deadlockPrevented.get() + successCounter.get());
+        Assertions.assertEquals(0, entityLocker.lockTable.size());
+
+    }
+
+    private static class NestedLocking implements Runnable {
+
+        private final LongEntityLocker entityLocker;
+        private final int level;
+        private final int numberOfLevels;
+        private final AtomicInteger deepestLevel;
+
+        NestedLocking(LongEntityLocker entityLocker, int level, int numberOfLevels, AtomicInteger deepestLevel) {
+            this.entityLocker = entityLocker;
+            this.level = level;
+            this.numberOfLevels = numberOfLevels;
+            this.deepestLevel = deepestLevel;
+        }
+
+        @Override
+        public void run() {
+            deepestLevel.set(level);
+            if (level == numberOfLevels) {
+                return;
+            }
+            try {
+                entityLocker.lockAndExecute(level * 1024L, new NestedLocking(entityLocker, level + 1, numberOfLevels, deepestLevel));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class CrossLockingTask implements Runnable {
+
+        private final LongEntityLocker entityLocker;
+        private final long firstEntityId;
+        private final long secondEntityId;
+        private final CountDownLatch bothLocked;
+        private final AtomicInteger deadlockPrevented;
+        private final AtomicInteger successCounter;
+
+        CrossLockingTask(LongEntityLocker entityLocker, long firstEntityId, long secondEntityId, CountDownLatch bothLocked,
+                         AtomicInteger deadlockPrevented, AtomicInteger successCounter) {
+            this.entityLocker = entityLocker;
+            this.firstEntityId = firstEntityId;
+            this.secondEntityId = secondEntityId;
+            this.bothLocked = bothLocked;
+            this.deadlockPrevented = deadlockPrevented;
+            this.successCounter = successCounter;
+        }
+
+        @Override
+        public void run() {
+            try {
+                entityLocker.lockAndExecute(firstEntityId, () -> {
+                    bothLocked.countDown();
+                    try {
+                        bothLocked.await();
+                        entityLocker.lockAndExecute(secondEntityId, successCounter::incrementAndGet);
+                    } catch (EntityLocker.DeadlockPreventedException e) {
+                        deadlockPrevented.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}